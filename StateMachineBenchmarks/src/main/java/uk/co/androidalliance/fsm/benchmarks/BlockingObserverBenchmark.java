@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2013 Android Alliance LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.androidalliance.fsm.benchmarks;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.co.androidalliance.fsm.StateMachine;
+import uk.co.androidalliance.fsm.StateMachineDefinition;
+import uk.co.androidalliance.fsm.StateMachineRuntime;
+import uk.co.androidalliance.fsm.interfaces.ActionType;
+
+/**
+ * A StateMachineRuntime in executor mode driving 10k door machines, each
+ * with an observer blocking for 5ms in <code>onChanged</code>, as a DB write would.
+ * <p/>
+ * Each invocation sends one action to every machine and waits for all the
+ * observers to return, so the score is the time for the whole population to
+ * make one transition. The executor is a fixed pool of
+ * <code>poolSize</code> platform threads, a cached pool growing a platform
+ * thread per blocked machine, or one virtual thread per task; the latter
+ * needs a JDK with virtual threads, skip it elsewhere with -p executor=fixed,cached.</P>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class BlockingObserverBenchmark {
+
+    private static final int MACHINES = 10000;
+
+    private static final long BLOCK_MILLIS = 5;
+
+    @Param({"fixed", "cached", "virtual"})
+    public String executor;
+
+    @Param({"200"})
+    public int poolSize;
+
+    private ExecutorService executorService;
+
+    private StateMachineRuntime<Integer> runtime;
+
+    private Integer[] keys;
+
+    private BlockingObserver observer;
+
+    // every round sends OPEN then CLOSE, so each action leads somewhere
+    private int round;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        executorService = newExecutor();
+        observer = new BlockingObserver();
+        final StateMachineDefinition definition = Fixtures.door().freeze();
+        runtime = new StateMachineRuntime<Integer>(new StateMachineRuntime.Factory<Integer>() {
+            @Override
+            public StateMachine create(Integer key) {
+                StateMachine fsm = new StateMachine(definition);
+                fsm.start();
+                // added once started, the start does not block
+                fsm.addObserver(observer);
+                return fsm;
+            }
+        }, executorService, StateMachineRuntime.DEFAULT_BATCH_SIZE);
+        keys = new Integer[MACHINES];
+        for (int i = 0; i < MACHINES; i++) {
+            keys[i] = i;
+        }
+    }
+
+    private ExecutorService newExecutor() throws Exception {
+        if ("fixed".equals(executor)) {
+            return Executors.newFixedThreadPool(poolSize);
+        }
+        if ("cached".equals(executor)) {
+            return Executors.newCachedThreadPool();
+        }
+        if ("virtual".equals(executor)) {
+            // compiled for Java 8, so looked up at run time
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (NoSuchMethodException e) {
+                throw new IllegalStateException("No virtual threads on this JDK, run with -p executor=fixed,cached", e);
+            }
+        }
+        throw new IllegalArgumentException("executor: " + executor);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        executorService.shutdown();
+        executorService.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    @Benchmark
+    public long transitionAll() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(MACHINES);
+        observer.done = done;
+        DoorTargetType target = round % 2 == 0 ? DoorTargetType.OPEN : DoorTargetType.CLOSE;
+        for (int i = 0; i < MACHINES; i++) {
+            runtime.submit(keys[i], target, null);
+        }
+        round++;
+        done.await();
+        return done.getCount();
+    }
+
+    /**
+     * Blocks in every changed notification, then counts it down.
+     */
+    static final class BlockingObserver implements StateMachine.Observer {
+
+        volatile CountDownLatch done;
+
+        @Override
+        public void onStateEntering(uk.co.androidalliance.fsm.State state) {
+        }
+
+        @Override
+        public void onStateExiting(uk.co.androidalliance.fsm.State state) {
+        }
+
+        @Override
+        public void onStateChanged(uk.co.androidalliance.fsm.State state) {
+        }
+
+        @Override
+        public void onChanged(uk.co.androidalliance.fsm.State state, ActionType actionType) {
+            try {
+                Thread.sleep(BLOCK_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            done.countDown();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2013 Android Alliance LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.androidalliance.fsm.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import uk.co.androidalliance.fsm.StateMachine;
+import uk.co.androidalliance.fsm.StateMachineDefinition;
+
+/**
+ * The cost of building machines: registerState/defineTrans, freeze and start.
+ */
+@State(Scope.Thread)
+public class BuildBenchmark {
+
+    private StateMachineDefinition door;
+
+    @Setup
+    public void setUp() {
+        door = Fixtures.door().freeze();
+    }
+
+    @Benchmark
+    public StateMachine buildDoor() {
+        return Fixtures.door();
+    }
+
+    @Benchmark
+    public StateMachine buildNamedRing() {
+        return Fixtures.namedRing();
+    }
+
+    @Benchmark
+    public StateMachineDefinition buildAndFreezeDoor() {
+        return Fixtures.door().freeze();
+    }
+
+    @Benchmark
+    public StateMachine startDoor() {
+        StateMachine fsm = Fixtures.door();
+        fsm.start();
+        return fsm;
+    }
+
+    @Benchmark
+    public StateMachine startFromDefinition() {
+        StateMachine fsm = new StateMachine(door);
+        fsm.start();
+        return fsm;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2013 Android Alliance LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.androidalliance.fsm.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import uk.co.androidalliance.fsm.StateMachineDefinition;
+import uk.co.androidalliance.fsm.bulk.BulkResult;
+import uk.co.androidalliance.fsm.bulk.BulkSimulator;
+
+/**
+ * BulkSimulator running the door graph over 1M entities and 16M random
+ * events, the score being in events per second.
+ */
+@State(Scope.Benchmark)
+public class BulkSimulationBenchmark {
+
+    private static final int ENTITIES = 1000000;
+    private static final int EVENTS = 1 << 24;
+
+    @Param({"0", "1", "4", "8"})
+    public int partitions;
+
+    private BulkSimulator simulator;
+    private ExecutorService executor;
+    private int[] states;
+    private int[] entities;
+    private int[] targets;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        StateMachineDefinition definition = Fixtures.door().freeze();
+        simulator = new BulkSimulator(definition);
+        states = simulator.newStates(ENTITIES);
+        entities = new int[EVENTS];
+        targets = new int[EVENTS];
+        Random random = new Random(42);
+        for (int i = 0; i < EVENTS; i++) {
+            entities[i] = random.nextInt(ENTITIES);
+            targets[i] = definition.ordinalOf(Fixtures.DOOR_CYCLE[random.nextInt(4)]);
+        }
+        if (partitions > 0) {
+            executor = Executors.newFixedThreadPool(partitions);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public BulkResult run() throws InterruptedException {
+        if (executor == null) {
+            return simulator.run(states, entities, targets, EVENTS);
+        }
+        return simulator.run(states, entities, targets, EVENTS, executor, partitions);
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2013 Android Alliance LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.androidalliance.fsm.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import uk.co.androidalliance.fsm.StateMachine;
+import uk.co.androidalliance.fsm.TransitionResult;
+import uk.co.androidalliance.fsm.interfaces.TargetType;
+
+/**
+ * The door graph through the frozen StateMachine and through CompiledDoor,
+ * generated from DoorHandlers, both making 11 callbacks per Fixtures.DOOR_CYCLE.
+ */
+@State(Scope.Thread)
+public class CompiledMachineBenchmark {
+
+    private StateMachine interpreted;
+    private CompiledDoor compiled;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        interpreted = Fixtures.door();
+        interpreted.freeze();
+        interpreted.addObserver(new Fixtures.CountingObserver());
+        interpreted.start();
+        compiled = new CompiledDoor(new DoorHandlers());
+        compiled.start();
+    }
+
+    @Benchmark
+    public TransitionResult interpreted() {
+        TargetType targetType = Fixtures.DOOR_CYCLE[next];
+        next = (next + 1) & 3;
+        return interpreted.stateAction(targetType, null);
+    }
+
+    @Benchmark
+    public TransitionResult compiled() {
+        TargetType targetType = Fixtures.DOOR_CYCLE[next];
+        next = (next + 1) & 3;
+        return compiled.stateAction(targetType, null);
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2013 Android Alliance LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.androidalliance.fsm.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import uk.co.androidalliance.fsm.ConcurrentStateMachine;
+import uk.co.androidalliance.fsm.StateMachine;
+import uk.co.androidalliance.fsm.StateMachineDefinition;
+import uk.co.androidalliance.fsm.TransitionResult;
+
+/**
+ * One door machine shared by every benchmark thread, either a
+ * ConcurrentStateMachine or a StateMachine behind a lock.
+ * <p/>
+ * Run with -t 1, -t 4, -t 16 and -t 64 to compare them as contention grows.</P>
+ */
+@State(Scope.Benchmark)
+public class ContentionBenchmark {
+
+    private ConcurrentStateMachine concurrent;
+    private StateMachine locked;
+
+    @Setup
+    public void setUp() {
+        StateMachineDefinition definition = Fixtures.door().freeze();
+        concurrent = new ConcurrentStateMachine(definition);
+        concurrent.addObserver(new Fixtures.CountingObserver());
+        concurrent.start();
+        locked = new StateMachine(definition);
+        locked.addObserver(new Fixtures.CountingObserver());
+        locked.start();
+    }
+
+    @Benchmark
+    public TransitionResult concurrent() {
+        return concurrent.stateAction(Fixtures.DOOR_CYCLE[ThreadLocalRandom.current().nextInt(4)], null);
+    }
+
+    @Benchmark
+    public TransitionResult synchronizedWrapper() {
+        int target = ThreadLocalRandom.current().nextInt(4);
+        synchronized (locked) {
+            return locked.stateAction(Fixtures.DOOR_CYCLE[target], null);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2013 Android Alliance LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.androidalliance.fsm.benchmarks;
+
+import uk.co.androidalliance.fsm.annotations.CompiledStateMachine;
+import uk.co.androidalliance.fsm.annotations.OnChanged;
+import uk.co.androidalliance.fsm.annotations.OnEntering;
+import uk.co.androidalliance.fsm.annotations.OnExiting;
+import uk.co.androidalliance.fsm.annotations.Transition;
+import uk.co.androidalliance.fsm.interfaces.ActionType;
+
+/**
+ * The door graph of Fixtures.door() compiled into CompiledDoor, counting its
+ * callbacks as Fixtures.CountingObserver does: 11 per Fixtures.DOOR_CYCLE.
+ * <p/>
+ * CLOSED has two OnChanged handlers, one for the changedEvent delivered to
+ * <code>onStateChanged</code> and one for <code>onChanged</code>, which the
+ * other states get alone.</P>
+ */
+@CompiledStateMachine(name = "CompiledDoor", states = DoorStateType.class, targets = DoorTargetType.class,
+        initial = "CLOSED", transitions = {
+        @Transition(from = "OPENED", on = "CLOSE", to = "CLOSED"),
+        @Transition(from = "CLOSED", on = "OPEN", to = "OPENED"),
+        @Transition(from = "CLOSED", on = "LOCK", to = "LOCKED"),
+        @Transition(from = "LOCKED", on = "UNLOCK", to = "CLOSED")
+})
+public class DoorHandlers {
+
+    public long count;
+
+    @OnEntering("OPENED")
+    public boolean onOpening() {
+        count++;
+        return true;
+    }
+
+    @OnExiting("OPENED")
+    public void onAboutToClose() {
+        count++;
+    }
+
+    @OnEntering("CLOSED")
+    public void onClosing() {
+        count++;
+    }
+
+    @OnChanged("CLOSED")
+    public void onClosed(ActionType actionType) {
+        count++;
+    }
+
+    @OnChanged("CLOSED")
+    public void onChangedClosed(ActionType actionType) {
+        count++;
+    }
+
+    @OnEntering("LOCKED")
+    public void onLocking() {
+        count++;
+    }
+
+    @OnChanged("OPENED")
+    public void onChangedOpened(ActionType actionType) {
+        count++;
+    }
+
+    @OnChanged("LOCKED")
+    public void onChangedLocked(ActionType actionType) {
+        count++;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2013 Android Alliance LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.androidalliance.fsm.benchmarks;
+
+import uk.co.androidalliance.fsm.State;
+import uk.co.androidalliance.fsm.StateMachine;
+import uk.co.androidalliance.fsm.interfaces.ActionType;
+import uk.co.androidalliance.fsm.interfaces.StateType;
+import uk.co.androidalliance.fsm.interfaces.TargetType;
+
+/**
+ * Graphs shared by the benchmarks; every builder returns a machine with its
+ * states registered, neither frozen nor started.
+ */
+public final class Fixtures {
+
+    public static final int LARGE_SIZE = 10000;
+
+    // Fired in a loop, brings the door back to CLOSED
+    public static final TargetType[] DOOR_CYCLE = {
+            DoorTargetType.OPEN, DoorTargetType.CLOSE, DoorTargetType.LOCK, DoorTargetType.UNLOCK
+    };
+
+    public static final Named NAMED_NEXT = new Named("next");
+    public static final Named NAMED_BACK = new Named("back");
+
+    private Fixtures() {
+    }
+
+    /**
+     * The closed/opened/locked graph of MainActivity.bootstrapFSM().
+     */
+    public static StateMachine door() {
+        StateMachine fsm = new StateMachine();
+
+        State openedState = new State.Builder(DoorStateType.OPENED).setEntering("event/openingEvent").setExiting("event/aboutToCloseEvent").build();
+        openedState.defineTrans(DoorTargetType.CLOSE, DoorStateType.CLOSED);
+
+        State closedState = new State.Builder(DoorStateType.CLOSED).setEntering("event/closingEvent").setChanged("event/changedEvent").build();
+        closedState.defineTrans(DoorTargetType.OPEN, DoorStateType.OPENED);
+        closedState.defineTrans(DoorTargetType.LOCK, DoorStateType.LOCKED);
+
+        State lockedState = new State.Builder(DoorStateType.LOCKED).setEntering("event/lockingEvent").build();
+        lockedState.defineTrans(DoorTargetType.UNLOCK, DoorStateType.CLOSED);
+
+        fsm.registerInitialState(closedState);
+        fsm.registerState(openedState);
+        fsm.registerState(closedState);
+        fsm.registerState(lockedState);
+        return fsm;
+    }
+
+    /**
+     * A ring of LARGE_SIZE string-typed states linked by NAMED_NEXT and NAMED_BACK.
+     */
+    public static StateMachine namedRing() {
+        StateType[] types = new StateType[LARGE_SIZE];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = new Named("S" + i);
+        }
+        return ring(types, NAMED_NEXT, NAMED_BACK);
+    }
+
+    /**
+     * A ring of every LargeStateType constant linked by RingTargetType.
+     */
+    public static StateMachine enumRing() {
+        return ring(LargeStateType.values(), RingTargetType.NEXT, RingTargetType.BACK);
+    }
+
+    private static StateMachine ring(StateType[] types, TargetType next, TargetType back) {
+        StateMachine fsm = new StateMachine();
+        for (int i = 0; i < types.length; i++) {
+            State state = new State.Builder(types[i]).setEntering("entering").setExiting("exiting").setChanged("changed").build();
+            state.defineTrans(next, types[(i + 1) % types.length]);
+            state.defineTrans(back, types[(i + types.length - 1) % types.length]);
+            if (i == 0) {
+                fsm.registerInitialState(state);
+            }
+            fsm.registerState(state);
+        }
+        return fsm;
+    }
+
+    /**
+     * An observer counting every notification it receives.
+     */
+    public static class CountingObserver implements StateMachine.Observer {
+
+        public long count;
+
+        @Override
+        public void onStateEntering(State state) {
+            count++;
+        }
+
+        @Override
+        public void onStateExiting(State state) {
+            count++;
+        }
+
+        @Override
+        public void onStateChanged(State state) {
+            count++;
+        }
+
+        @Override
+        public void onChanged(State state, ActionType actionType) {
+            count++;
+        }
+    }
+
+    /**
+     * A CountingObserver also summing the payloads of the PrimitiveActions.
+     */
+    public static class PayloadObserver extends CountingObserver implements StateMachine.PrimitiveObserver {
+
+        public long sum;
+
+        @Override
+        public void onChanged(State state, long payload) {
+            count++;
+            sum += payload;
+        }
+    }
+}
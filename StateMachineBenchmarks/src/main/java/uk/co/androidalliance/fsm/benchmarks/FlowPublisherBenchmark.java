@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2013 Android Alliance LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.androidalliance.fsm.benchmarks;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import uk.co.androidalliance.fsm.StateMachine;
+import uk.co.androidalliance.fsm.TransitionResult;
+import uk.co.androidalliance.fsm.flow.StateChange;
+import uk.co.androidalliance.fsm.flow.StateChangePublisher;
+import uk.co.androidalliance.fsm.flow.Subscriber;
+import uk.co.androidalliance.fsm.flow.Subscription;
+
+/**
+ * Transitions of 1024 door machines attached to a StateChangePublisher,
+ * with a subscriber requesting everything up front or one change at a time
+ * and spending a microsecond on each. The transitions must not slow down
+ * with the slow subscriber, whose changes are dropped or conflated instead.
+ */
+@State(Scope.Benchmark)
+public class FlowPublisherBenchmark {
+
+    private static final int MACHINES = 1024;
+
+    @Param({"LATEST", "DROP"})
+    public StateChangePublisher.OverflowStrategy strategy;
+
+    @Param({"false", "true"})
+    public boolean slow;
+
+    private ExecutorService executor;
+    private StateChangePublisher publisher;
+    private StateMachine[] machines;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        executor = Executors.newSingleThreadExecutor();
+        publisher = new StateChangePublisher(executor, MACHINES, strategy);
+        publisher.subscribe(slow ? new SlowSubscriber() : new FastSubscriber());
+        machines = new StateMachine[MACHINES];
+        for (int i = 0; i < MACHINES; i++) {
+            machines[i] = Fixtures.door();
+            machines[i].freeze();
+            publisher.attach(machines[i]);
+            machines[i].start();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        publisher.close();
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public TransitionResult transition() {
+        StateMachine machine = machines[next & (MACHINES - 1)];
+        TransitionResult result = machine.stateAction(Fixtures.DOOR_CYCLE[(next >>> 10) & 3], null);
+        next++;
+        return result;
+    }
+
+    private static class FastSubscriber implements Subscriber<StateChange> {
+
+        long received;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(StateChange item) {
+            received++;
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+
+    private static class SlowSubscriber extends FastSubscriber {
+
+        private Subscription subscription;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(StateChange item) {
+            super.onNext(item);
+            long until = System.nanoTime() + 1000;
+            while (System.nanoTime() < until) {
+                // simulates the subscriber's work
+            }
+            subscription.request(1);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2013 Android Alliance LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.androidalliance.fsm.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import uk.co.androidalliance.fsm.StateMachine;
+import uk.co.androidalliance.fsm.StateMachineDefinition;
+import uk.co.androidalliance.fsm.TransitionResult;
+import uk.co.androidalliance.fsm.journal.TransitionJournal;
+
+/**
+ * StateMachine.stateAction on the door graph with and without a TransitionJournal
+ * as the commit listener, the difference being the cost of an append.
+ */
+@State(Scope.Thread)
+public class JournalBenchmark {
+
+    @Param({"false", "true"})
+    public boolean journal;
+
+    private File directory;
+    private TransitionJournal transitionJournal;
+    private StateMachine fsm;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        StateMachineDefinition definition = Fixtures.door().freeze();
+        fsm = new StateMachine(definition, 1);
+        if (journal) {
+            directory = File.createTempFile("journal", "");
+            directory.delete();
+            transitionJournal = new TransitionJournal(directory, definition, 64 << 20, null, 100);
+            fsm.addCommitListener(transitionJournal);
+        }
+        fsm.start();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (transitionJournal != null) {
+            transitionJournal.close();
+            for (File segment : directory.listFiles()) {
+                segment.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    @Benchmark
+    public TransitionResult stateAction() {
+        TransitionResult result = fsm.stateAction(Fixtures.DOOR_CYCLE[next], null);
+        next = (next + 1) & 3;
+        return result;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2013 Android Alliance LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.androidalliance.fsm.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import uk.co.androidalliance.fsm.StateMachine;
+import uk.co.androidalliance.fsm.TransitionResult;
+import uk.co.androidalliance.fsm.metrics.InMemoryMetricsSink;
+
+/**
+ * The cost of transitionTo's dispatch phases as the number of observers
+ * grows, with and without a MetricsSink timing every callback.
+ */
+@State(Scope.Thread)
+public class ObserverDispatchBenchmark {
+
+    @Param({"0", "1", "10", "100"})
+    public int observers;
+
+    @Param({"false", "true"})
+    public boolean metrics;
+
+    private StateMachine fsm;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        fsm = Fixtures.door();
+        fsm.freeze();
+        if (metrics) {
+            fsm.setMetricsSink(new InMemoryMetricsSink());
+        }
+        for (int i = 0; i < observers; i++) {
+            fsm.addObserver(new Fixtures.CountingObserver());
+        }
+        fsm.start();
+    }
+
+    @Benchmark
+    public TransitionResult transition() {
+        TransitionResult result = fsm.stateAction(Fixtures.DOOR_CYCLE[next], null);
+        next = (next + 1) & 3;
+        return result;
+    }
+}
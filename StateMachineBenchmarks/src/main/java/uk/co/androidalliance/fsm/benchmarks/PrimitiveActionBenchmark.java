@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2013 Android Alliance LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.androidalliance.fsm.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import uk.co.androidalliance.fsm.StateMachine;
+import uk.co.androidalliance.fsm.TransitionResult;
+import uk.co.androidalliance.fsm.interfaces.ActionType;
+
+/**
+ * The frozen door graph fired with an ActionType allocated per event, as the
+ * sample fragments do, against the primitive overloads. Run with
+ * <code>-prof gc</code> to see the primitive ones allocate nothing.
+ */
+@State(Scope.Thread)
+public class PrimitiveActionBenchmark {
+
+    private StateMachine fsm;
+    private int[] cycle;
+    private int next;
+    private long counter;
+
+    @Setup
+    public void setUp() {
+        fsm = Fixtures.door();
+        fsm.freeze();
+        fsm.addObserver(new Fixtures.PayloadObserver());
+        fsm.start();
+        cycle = new int[Fixtures.DOOR_CYCLE.length];
+        for (int i = 0; i < cycle.length; i++) {
+            cycle[i] = fsm.getDefinition().ordinalOf(Fixtures.DOOR_CYCLE[i]);
+        }
+    }
+
+    @Benchmark
+    public TransitionResult wrapped() {
+        final long payload = counter++;
+        TransitionResult result = fsm.stateAction(Fixtures.DOOR_CYCLE[next], new ActionType() {
+            @Override
+            public Object getPayload() {
+                return payload;
+            }
+        });
+        next = (next + 1) & 3;
+        return result;
+    }
+
+    @Benchmark
+    public TransitionResult ordinal() {
+        TransitionResult result = fsm.stateAction(cycle[next]);
+        next = (next + 1) & 3;
+        return result;
+    }
+
+    @Benchmark
+    public TransitionResult primitive() {
+        TransitionResult result = fsm.stateAction(Fixtures.DOOR_CYCLE[next], counter++);
+        next = (next + 1) & 3;
+        return result;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2013 Android Alliance LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.androidalliance.fsm.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.co.androidalliance.fsm.StateMachine;
+import uk.co.androidalliance.fsm.StateMachineDefinition;
+import uk.co.androidalliance.fsm.journal.JournalReader;
+import uk.co.androidalliance.fsm.journal.ReplayEngine;
+import uk.co.androidalliance.fsm.journal.TransitionJournal;
+
+/**
+ * ReplayEngine rebuilding 1M door machines from a journal of 100M events.
+ * <p/>
+ * The journal, about 4GB in the temporary directory, is written once per
+ * trial, and each invocation replays all of it, so the score is the time to
+ * rebuild the whole population.</P>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+public class ReplayBenchmark {
+
+    private static final int MACHINES = 1000000;
+
+    @Param({"100000000"})
+    public long events;
+
+    @Param({"1", "4", "8"})
+    public int partitions;
+
+    private StateMachineDefinition definition;
+    private StateMachine[] machines;
+    private ExecutorService executor;
+    private File directory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        definition = Fixtures.door().freeze();
+        machines = new StateMachine[MACHINES];
+        for (int i = 0; i < MACHINES; i++) {
+            machines[i] = new StateMachine(definition, i);
+        }
+        executor = Executors.newFixedThreadPool(partitions);
+
+        directory = File.createTempFile("replay", "");
+        directory.delete();
+        TransitionJournal journal = new TransitionJournal(directory, definition, 256 << 20, null, 0);
+        int[] next = new int[MACHINES];
+        int closed = definition.ordinalOf(definition.getInitial());
+        for (int i = 0; i < MACHINES; i++) {
+            machines[i].restore(definition.getInitial());
+            journal.append(i, -1, -1, closed, 0, null);
+        }
+        for (long i = MACHINES; i < events; i++) {
+            int id = (int) (i % MACHINES);
+            int from = definition.ordinalOf(machines[id].getCurrentState());
+            StateMachine machine = machines[id];
+            machine.replay(Fixtures.DOOR_CYCLE[next[id]]);
+            journal.append(id, from, definition.ordinalOf(Fixtures.DOOR_CYCLE[next[id]]),
+                    definition.ordinalOf(machine.getCurrentState()), i, null);
+            next[id] = (next[id] + 1) & 3;
+        }
+        journal.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdown();
+        for (File segment : directory.listFiles()) {
+            segment.delete();
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public long replay() throws IOException, InterruptedException {
+        JournalReader reader = new JournalReader(directory);
+        try {
+            return new ReplayEngine(definition, executor, partitions, ReplayEngine.DEFAULT_BLOCK_SIZE)
+                    .replay(reader, new ReplayEngine.MachineLookup() {
+                        @Override
+                        public StateMachine get(long machineId) {
+                            return machines[(int) machineId];
+                        }
+                    }, false);
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2013 Android Alliance LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.androidalliance.fsm.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import uk.co.androidalliance.fsm.StateMachine;
+import uk.co.androidalliance.fsm.StateMachineDefinition;
+import uk.co.androidalliance.fsm.StateMachineRuntime;
+
+/**
+ * StateMachineRuntime throughput for 1M door machines, with keys drawn from a
+ * Zipfian distribution so that a few hot machines get most of the events.
+ * <p/>
+ * Each invocation submits a full round of events and waits for every shard
+ * to drain it, so the score is in events per second across all shards.</P>
+ */
+@State(Scope.Benchmark)
+public class RuntimeBenchmark {
+
+    private static final int KEYS = 1000000;
+    private static final int EVENTS = 1 << 20;
+
+    @Param({"1", "2", "4", "8"})
+    public int shards;
+
+    private StateMachineRuntime<Integer> runtime;
+    private Integer[] keys;
+    private int[] targets;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final StateMachineDefinition definition = Fixtures.door().freeze();
+        runtime = new StateMachineRuntime<Integer>(new StateMachineRuntime.Factory<Integer>() {
+            @Override
+            public StateMachine create(Integer key) {
+                StateMachine fsm = new StateMachine(definition);
+                fsm.start();
+                return fsm;
+            }
+        }, shards, StateMachineRuntime.DEFAULT_BATCH_SIZE);
+
+        Zipf zipf = new Zipf(KEYS, 0.99, new Random(42));
+        Integer[] boxed = new Integer[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            boxed[i] = i;
+        }
+        keys = new Integer[EVENTS];
+        targets = new int[EVENTS];
+        Random random = new Random(7);
+        for (int i = 0; i < EVENTS; i++) {
+            keys[i] = boxed[zipf.next()];
+            targets[i] = random.nextInt(4);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        runtime.shutdown();
+        runtime.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public long submitRound() {
+        long before = processed();
+        for (int i = 0; i < EVENTS; i++) {
+            runtime.submit(keys[i], Fixtures.DOOR_CYCLE[targets[i]], null);
+        }
+        long target = before + EVENTS;
+        while (processed() < target) {
+            Thread.yield();
+        }
+        return target;
+    }
+
+    private long processed() {
+        long total = 0;
+        for (int i = 0; i < runtime.getShardCount(); i++) {
+            total += runtime.getProcessedCount(i);
+        }
+        return total;
+    }
+
+    /**
+     * Zipfian ranks in [0, n), from "Quickly Generating Billion-Record Synthetic Databases".
+     */
+    static final class Zipf {
+        private final int n;
+        private final double theta;
+        private final double alpha;
+        private final double zetan;
+        private final double eta;
+        private final Random random;
+
+        Zipf(int n, double theta, Random random) {
+            this.n = n;
+            this.theta = theta;
+            this.random = random;
+            this.zetan = zeta(n, theta);
+            this.alpha = 1.0 / (1.0 - theta);
+            this.eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta(2, theta) / zetan);
+        }
+
+        int next() {
+            double u = random.nextDouble();
+            double uz = u * zetan;
+            if (uz < 1.0) {
+                return 0;
+            }
+            if (uz < 1.0 + Math.pow(0.5, theta)) {
+                return 1;
+            }
+            return Math.min(n - 1, (int) (n * Math.pow(eta * u - eta + 1, alpha)));
+        }
+
+        private static double zeta(int n, double theta) {
+            double sum = 0;
+            for (int i = 1; i <= n; i++) {
+                sum += 1 / Math.pow(i, theta);
+            }
+            return sum;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2013 Android Alliance LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.androidalliance.fsm.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.co.androidalliance.fsm.StateMachine;
+import uk.co.androidalliance.fsm.StateMachineDefinition;
+import uk.co.androidalliance.fsm.journal.MachineSnapshot;
+import uk.co.androidalliance.fsm.journal.ReplayEngine;
+
+/**
+ * MachineSnapshot writing and restoring 10M door machines, the score being
+ * the time to go through the whole population once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class SnapshotBenchmark {
+
+    @Param({"10000000"})
+    public int machines;
+
+    private StateMachineDefinition definition;
+    private StateMachine[] population;
+    private ReplayEngine.MachineLookup lookup;
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        definition = Fixtures.door().freeze();
+        population = new StateMachine[machines];
+        for (int i = 0; i < machines; i++) {
+            population[i] = new StateMachine(definition, i);
+            population[i].restore(definition.getInitial());
+            for (int j = i % 3; j > 0; j--) {
+                population[i].replay(Fixtures.DOOR_CYCLE[j % 3]);
+            }
+        }
+        lookup = new ReplayEngine.MachineLookup() {
+            @Override
+            public StateMachine get(long machineId) {
+                return population[(int) machineId];
+            }
+        };
+        file = File.createTempFile("snapshot", "");
+        MachineSnapshot.write(file, definition, machines, lookup);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        MachineSnapshot.write(file, definition, machines, lookup);
+    }
+
+    @Benchmark
+    public long restore() throws IOException {
+        return MachineSnapshot.restore(file, definition, lookup);
+    }
+}
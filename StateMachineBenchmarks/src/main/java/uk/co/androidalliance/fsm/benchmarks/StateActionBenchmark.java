@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2013 Android Alliance LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.androidalliance.fsm.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import uk.co.androidalliance.fsm.StateMachine;
+import uk.co.androidalliance.fsm.TransitionResult;
+import uk.co.androidalliance.fsm.interfaces.TargetType;
+
+/**
+ * StateMachine.stateAction on small and large graphs, through the map path
+ * and through the frozen definition.
+ */
+@State(Scope.Thread)
+public class StateActionBenchmark {
+
+    @Param({"door", "namedRing", "enumRing"})
+    public String graph;
+
+    @Param({"false", "true"})
+    public boolean frozen;
+
+    private StateMachine fsm;
+    private TargetType[] cycle;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        if ("door".equals(graph)) {
+            fsm = Fixtures.door();
+            cycle = Fixtures.DOOR_CYCLE;
+        } else if ("namedRing".equals(graph)) {
+            fsm = Fixtures.namedRing();
+            cycle = new TargetType[] { Fixtures.NAMED_NEXT };
+        } else {
+            fsm = Fixtures.enumRing();
+            cycle = new TargetType[] { RingTargetType.NEXT };
+        }
+        if (frozen) {
+            fsm.freeze();
+        }
+        fsm.addObserver(new Fixtures.CountingObserver());
+        fsm.start();
+    }
+
+    @Benchmark
+    public TransitionResult stateAction() {
+        TargetType targetType = cycle[next];
+        next = next + 1 == cycle.length ? 0 : next + 1;
+        return fsm.stateAction(targetType, null);
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2013 Android Alliance LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.androidalliance.fsm.benchmarks;
+
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import uk.co.androidalliance.fsm.TimingWheel;
+
+/**
+ * TimingWheel holding 5M pending timers, each rescheduling itself when it
+ * expires so that the population stays constant. <code>tick</code> measures
+ * the overhead of a tick, expiries and cascades included, and
+ * <code>scheduleCancel</code> the cost of arming and disarming one more timer.
+ */
+@State(Scope.Benchmark)
+public class TimingWheelBenchmark {
+
+    @Param({"5000000"})
+    public int timers;
+
+    // Delays are drawn up to this many ticks, reaching the third wheel level
+    @Param({"1000000"})
+    public int maxDelay;
+
+    private TimingWheel wheel;
+    private Runnable noop;
+    private int delay;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        wheel = new TimingWheel(1);
+        final Random random = new Random(42);
+        for (int i = 0; i < timers; i++) {
+            wheel.schedule(1 + random.nextInt(maxDelay), new Runnable() {
+                @Override
+                public void run() {
+                    wheel.schedule(1 + random.nextInt(maxDelay), this);
+                }
+            });
+        }
+        noop = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+        delay = maxDelay / 2;
+    }
+
+    @Benchmark
+    public int tick() {
+        return wheel.tick();
+    }
+
+    @Benchmark
+    public boolean scheduleCancel() {
+        return wheel.schedule(delay, noop).cancel();
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2013 Android Alliance LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.androidalliance.fsm;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import uk.co.androidalliance.fsm.benchmarks.DoorStateType;
+import uk.co.androidalliance.fsm.benchmarks.DoorTargetType;
+import uk.co.androidalliance.fsm.benchmarks.Fixtures;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Transitions fired with their index as payload, delivered through a small ring buffer.
+ */
+public class AsyncObserverTest {
+
+    private static final int TOTAL = 200000;
+
+    private static final int CAPACITY = 64;
+
+    @Test(timeout = 60000)
+    public void blockDeliversEveryNotificationInOrder() throws InterruptedException {
+        // BUSY_SPIN would starve the other side on a single core
+        AsyncObserver.WaitStrategy[] waitStrategies = {AsyncObserver.WaitStrategy.YIELD, AsyncObserver.WaitStrategy.PARK};
+        for (AsyncObserver.WaitStrategy waitStrategy : waitStrategies) {
+            SequenceObserver delegate = new SequenceObserver(TOTAL);
+            AsyncObserver async = new AsyncObserver(delegate, CAPACITY, waitStrategy, AsyncObserver.OverflowPolicy.BLOCK);
+            async.start();
+            fire(async, TOTAL);
+
+            assertTrue(delegate.done.await(30, TimeUnit.SECONDS));
+            async.stop();
+            assertEquals(waitStrategy.name(), 0, delegate.outOfOrder);
+            assertEquals(waitStrategy.name(), TOTAL, delegate.received);
+            assertEquals(0, async.getDroppedCount());
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void dropOldestKeepsTheLatestInOrder() throws InterruptedException {
+        SequenceObserver delegate = new SequenceObserver(-1);
+        AsyncObserver async = new AsyncObserver(delegate, CAPACITY, AsyncObserver.WaitStrategy.YIELD,
+                AsyncObserver.OverflowPolicy.DROP_OLDEST);
+        async.start();
+        fire(async, TOTAL);
+        while (async.getQueueDepth() > 0) {
+            Thread.sleep(1);
+        }
+        async.stop();
+        // a later start joins the consumer, which has delivered everything
+        async.start();
+        async.stop();
+
+        assertEquals(0, delegate.outOfOrder);
+        assertEquals(TOTAL - 1, delegate.last);
+        assertEquals(TOTAL, delegate.received + async.getDroppedCount());
+    }
+
+    @Test
+    public void failThrowsOnceFull() {
+        SequenceObserver delegate = new SequenceObserver(-1);
+        AsyncObserver async = new AsyncObserver(delegate, CAPACITY, AsyncObserver.WaitStrategy.PARK,
+                AsyncObserver.OverflowPolicy.FAIL);
+        fire(async, CAPACITY);
+        assertEquals(CAPACITY, async.getQueueDepth());
+        try {
+            fire(async, 1);
+            fail();
+        } catch (IllegalStateException expected) {
+            assertEquals(1, async.getDroppedCount());
+        }
+    }
+
+    /**
+     * Opens and closes a door without other notifications than onChanged,
+     * each action carrying its index.
+     */
+    private static void fire(AsyncObserver async, int transitions) {
+        StateMachine fsm = new StateMachine();
+        State opened = new State.Builder(DoorStateType.OPENED).build();
+        opened.defineTrans(DoorTargetType.CLOSE, DoorStateType.CLOSED);
+        State closed = new State.Builder(DoorStateType.CLOSED).build();
+        closed.defineTrans(DoorTargetType.OPEN, DoorStateType.OPENED);
+        fsm.registerInitialState(closed);
+        fsm.registerState(opened);
+        fsm.registerState(closed);
+        fsm.start();
+        fsm.addObserver(async);
+        for (int i = 0; i < transitions; i++) {
+            fsm.stateAction(i % 2 == 0 ? DoorTargetType.OPEN : DoorTargetType.CLOSE, i);
+        }
+    }
+
+    /**
+     * Checks the payloads arrive in increasing order, only touched by the consumer thread.
+     */
+    private static class SequenceObserver extends Fixtures.CountingObserver implements StateMachine.PrimitiveObserver {
+
+        final CountDownLatch done = new CountDownLatch(1);
+
+        final long expected;
+
+        long received;
+
+        long last = -1;
+
+        int outOfOrder;
+
+        SequenceObserver(long expected) {
+            this.expected = expected;
+        }
+
+        @Override
+        public void onChanged(State state, long payload) {
+            if (payload <= last) {
+                outOfOrder++;
+            }
+            last = payload;
+            if (++received == expected) {
+                done.countDown();
+            }
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2013 Android Alliance LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.androidalliance.fsm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import uk.co.androidalliance.fsm.benchmarks.Fixtures;
+import uk.co.androidalliance.fsm.benchmarks.LargeStateType;
+import uk.co.androidalliance.fsm.benchmarks.RingTargetType;
+import uk.co.androidalliance.fsm.interfaces.ActionType;
+import uk.co.androidalliance.fsm.interfaces.TargetType;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Many threads stepping one ring machine forward at once.
+ */
+public class ConcurrentStateMachineTest {
+
+    private static final int THREADS = 8;
+
+    private static final int ACTIONS = 100000;
+
+    private static final int BATCHES = 2000;
+
+    private static final int BATCH_SIZE = 100;
+
+    private static final int RING_SIZE = LargeStateType.values().length;
+
+    @Test
+    public void retriedTransitionsAreAllCommittedOnce() throws Exception {
+        ConcurrentStateMachine fsm = new ConcurrentStateMachine(Fixtures.enumRing().freeze(), true);
+        Checker checker = new Checker();
+        fsm.start();
+        fsm.addCommitListener(checker);
+        fsm.addObserver(checker);
+
+        long[] results = race(fsm);
+
+        long total = (long) THREADS * ACTIONS;
+        assertNull(checker.failure.get());
+        assertEquals(total, results[TransitionResult.CHANGED.ordinal()]);
+        assertEquals(total, checker.commits.get());
+        assertEquals(total, checker.changes.get());
+        assertEquals(total % RING_SIZE, ordinalOf(fsm.getCurrentState()));
+    }
+
+    @Test
+    public void staleTransitionsAreNeverCommitted() throws Exception {
+        ConcurrentStateMachine fsm = new ConcurrentStateMachine(Fixtures.enumRing().freeze(), false);
+        Checker checker = new Checker();
+        fsm.start();
+        fsm.addCommitListener(checker);
+        fsm.addObserver(checker);
+
+        long[] results = race(fsm);
+
+        long changed = results[TransitionResult.CHANGED.ordinal()];
+        assertNull(checker.failure.get());
+        assertEquals((long) THREADS * ACTIONS, changed + results[TransitionResult.STALE.ordinal()]);
+        assertEquals(changed, checker.commits.get());
+        assertEquals(changed, checker.changes.get());
+        assertEquals(changed % RING_SIZE, ordinalOf(fsm.getCurrentState()));
+    }
+
+    @Test
+    public void coalescedBatchesRetryTheStepsThatLoseARace() throws Exception {
+        final ConcurrentStateMachine fsm = new ConcurrentStateMachine(Fixtures.enumRing().freeze(), false);
+        fsm.start();
+        Checker checker = new Checker();
+        fsm.addCommitListener(checker);
+
+        final List<StateAction> batch = new ArrayList<StateAction>();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(new StateAction(RingTargetType.NEXT, null));
+        }
+        final AtomicLong applied = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[2];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < BATCHES; i++) {
+                        applied.addAndGet(fsm.stateActions(batch, true).getApplied().size());
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long total = 2L * BATCHES * BATCH_SIZE;
+        assertNull(checker.failure.get());
+        assertEquals(total, applied.get());
+        assertEquals(total, checker.commits.get());
+        assertEquals(total % RING_SIZE, ordinalOf(fsm.getCurrentState()));
+    }
+
+    /**
+     * Fires NEXT from every thread at once.
+     *
+     * @return the number of each TransitionResult, by ordinal.
+     */
+    private static long[] race(final StateMachine fsm) throws InterruptedException {
+        final AtomicLong[] counts = new AtomicLong[TransitionResult.values().length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new AtomicLong();
+        }
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    long[] local = new long[counts.length];
+                    for (int i = 0; i < ACTIONS; i++) {
+                        local[fsm.stateAction(RingTargetType.NEXT, null).ordinal()]++;
+                    }
+                    for (int i = 0; i < local.length; i++) {
+                        counts[i].addAndGet(local[i]);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long[] results = new long[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            results[i] = counts[i].get();
+        }
+        return results;
+    }
+
+    private static int ordinalOf(State state) {
+        return ((LargeStateType) state.getStateType()).ordinal();
+    }
+
+    /**
+     * Checks that every commit moves one step along the ring, and counts the commits and changes.
+     */
+    private static class Checker extends Fixtures.CountingObserver implements StateMachine.CommitListener {
+
+        final AtomicLong commits = new AtomicLong();
+
+        final AtomicLong changes = new AtomicLong();
+
+        final AtomicReference<String> failure = new AtomicReference<String>();
+
+        @Override
+        public void onCommit(StateMachine machine, State from, TargetType targetType, State to, ActionType actionType) {
+            if (ordinalOf(to) != (ordinalOf(from) + 1) % RING_SIZE) {
+                failure.compareAndSet(null, "committed " + from.getStateType() + " -> " + to.getStateType());
+            }
+            commits.incrementAndGet();
+        }
+
+        @Override
+        public void onChanged(State state, ActionType actionType) {
+            changes.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2013 Android Alliance LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.androidalliance.fsm;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Test;
+
+import uk.co.androidalliance.fsm.benchmarks.DoorStateType;
+import uk.co.androidalliance.fsm.benchmarks.DoorTargetType;
+import uk.co.androidalliance.fsm.benchmarks.Fixtures;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * A door MailboxStateMachine drained by hand.
+ */
+public class MailboxStateMachineTest {
+
+    @Test
+    public void drainsAgainAfterTheExecutorRejectedATask() {
+        ManualExecutor executor = new ManualExecutor();
+        MailboxStateMachine fsm = new MailboxStateMachine(Fixtures.door().freeze(), executor, MailboxStateMachine.DEFAULT_BATCH_SIZE);
+        fsm.start();
+        executor.drain();
+
+        executor.rejecting = true;
+        try {
+            fsm.stateAction(DoorTargetType.OPEN, null);
+            fail();
+        } catch (RejectedExecutionException expected) {
+            assertEquals(1, fsm.getPendingCount());
+        }
+
+        executor.rejecting = false;
+        assertEquals(TransitionResult.QUEUED, fsm.stateAction(DoorTargetType.CLOSE, null));
+        executor.drain();
+        assertEquals(0, fsm.getPendingCount());
+        assertEquals(DoorStateType.CLOSED, fsm.getCurrentState().getStateType());
+        assertEquals(2, executor.run);
+    }
+
+    @Test
+    public void processesInArrivalOrderAcrossBatches() {
+        ManualExecutor executor = new ManualExecutor();
+        MailboxStateMachine fsm = new MailboxStateMachine(Fixtures.door().freeze(), executor, 2);
+        fsm.start();
+        for (int i = 0; i < 7; i++) {
+            fsm.stateAction(Fixtures.DOOR_CYCLE[i % Fixtures.DOOR_CYCLE.length], null);
+        }
+        executor.drain();
+
+        // OPEN, CLOSE, LOCK, UNLOCK, OPEN, CLOSE, LOCK
+        assertEquals(DoorStateType.LOCKED, fsm.getCurrentState().getStateType());
+        // the start and 7 actions, 2 per task
+        assertEquals(4, executor.run);
+    }
+
+    /**
+     * Runs the mailbox tasks when drained, or rejects them.
+     */
+    private static class ManualExecutor implements Executor {
+
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<Runnable>();
+
+        boolean rejecting;
+
+        int run;
+
+        @Override
+        public void execute(Runnable task) {
+            if (rejecting) {
+                throw new RejectedExecutionException();
+            }
+            tasks.add(task);
+        }
+
+        void drain() {
+            while (!tasks.isEmpty()) {
+                run++;
+                tasks.poll().run();
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2013 Android Alliance LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.androidalliance.fsm;
+
+import org.junit.Test;
+
+import uk.co.androidalliance.fsm.benchmarks.DoorStateType;
+import uk.co.androidalliance.fsm.benchmarks.DoorTargetType;
+import uk.co.androidalliance.fsm.benchmarks.Fixtures;
+import uk.co.androidalliance.fsm.interfaces.ActionType;
+import uk.co.androidalliance.fsm.interfaces.TargetType;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Dispatch of the transitions to the observers.
+ */
+public class ObserverDispatchTest {
+
+    private static final int WARM_UP = 200000;
+
+    private static final int MEASURED = 100000;
+
+    @Test
+    public void warmedUpTransitionAllocatesNothing() {
+        assertNoAllocation(Fixtures.door());
+    }
+
+    @Test
+    public void warmedUpTransitionOfFrozenMachineAllocatesNothing() {
+        StateMachine fsm = Fixtures.door();
+        fsm.freeze();
+        assertNoAllocation(fsm);
+    }
+
+    private static void assertNoAllocation(StateMachine fsm) {
+        assumeTrue(Memory.canCountAllocations());
+        Fixtures.CountingObserver first = new Fixtures.CountingObserver();
+        Fixtures.CountingObserver second = new Fixtures.CountingObserver();
+        fsm.addObserver(first);
+        fsm.addObserver(second);
+        fsm.start();
+        cycle(fsm, WARM_UP);
+
+        long before = Memory.allocatedBytes();
+        cycle(fsm, MEASURED);
+        long allocated = Memory.allocatedBytes() - before;
+
+        // less than a byte per transition: what is left is the measurement itself
+        assertTrue("allocated " + allocated + " bytes in " + MEASURED + " transitions", allocated < MEASURED);
+        assertEquals(first.count, second.count);
+        assertTrue(first.count > MEASURED);
+    }
+
+    private static void cycle(StateMachine fsm, int transitions) {
+        TargetType[] cycle = Fixtures.DOOR_CYCLE;
+        for (int i = 0; i < transitions; i++) {
+            fsm.stateAction(cycle[i % cycle.length], null);
+        }
+    }
+
+    @Test
+    public void observerRemovingItselfFromCallback() {
+        final StateMachine fsm = Fixtures.door();
+        Fixtures.CountingObserver removing = new Fixtures.CountingObserver() {
+            @Override
+            public void onChanged(State state, ActionType actionType) {
+                super.onChanged(state, actionType);
+                fsm.removeObserver(this);
+            }
+        };
+        Fixtures.CountingObserver other = new Fixtures.CountingObserver();
+        fsm.addObserver(removing);
+        fsm.addObserver(other);
+        fsm.start();
+        long removedAt = removing.count;
+
+        assertEquals(TransitionResult.CHANGED, fsm.stateAction(DoorTargetType.OPEN, null));
+        assertEquals(removedAt, removing.count);
+        assertEquals(DoorStateType.OPENED, fsm.getCurrentState().getStateType());
+        assertTrue(other.count > removedAt);
+    }
+
+    @Test
+    public void observerAddedFromCallbackIsNotifiedFromTheNextTransition() {
+        final StateMachine fsm = Fixtures.door();
+        final Fixtures.CountingObserver added = new Fixtures.CountingObserver();
+        fsm.addObserver(new Fixtures.CountingObserver() {
+            @Override
+            public void onChanged(State state, ActionType actionType) {
+                super.onChanged(state, actionType);
+                fsm.addObserver(added);
+            }
+        });
+        fsm.start();
+        fsm.removeObserver(added);
+
+        fsm.stateAction(DoorTargetType.OPEN, null);
+        assertEquals(0, added.count);
+
+        fsm.stateAction(DoorTargetType.CLOSE, null);
+        assertTrue(added.count > 0);
+    }
+
+    @Test
+    public void removeAllObserversWithoutObservers() {
+        StateMachine fsm = Fixtures.door();
+        fsm.removeAllObservers();
+        fsm.start();
+        assertEquals(TransitionResult.CHANGED, fsm.stateAction(DoorTargetType.OPEN, null));
+    }
+}
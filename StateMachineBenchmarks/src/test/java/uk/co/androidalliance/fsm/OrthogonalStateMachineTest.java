@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2013 Android Alliance LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.androidalliance.fsm;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import uk.co.androidalliance.fsm.benchmarks.DoorStateType;
+import uk.co.androidalliance.fsm.benchmarks.DoorTargetType;
+import uk.co.androidalliance.fsm.benchmarks.Fixtures;
+import uk.co.androidalliance.fsm.interfaces.ActionType;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Three door regions driven by the same actions on a thread pool.
+ */
+public class OrthogonalStateMachineTest {
+
+    private static final int REGIONS = 3;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(REGIONS - 1);
+
+    private final OrthogonalStateMachine fsm = new OrthogonalStateMachine(executor,
+            Fixtures.door().freeze(), Fixtures.door().freeze(), Fixtures.door().freeze());
+
+    @After
+    public void shutDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void callingRegionFailureWaitsForTheSubmittedRegions() {
+        AtomicInteger done = new AtomicInteger();
+        fsm.getRegion(0).addObserver(new FailingObserver("region 0"));
+        fsm.getRegion(1).addObserver(new SlowObserver(done));
+        fsm.getRegion(2).addObserver(new SlowObserver(done));
+        fsm.start();
+
+        try {
+            fsm.stateAction(DoorTargetType.OPEN, null);
+            fail();
+        } catch (IllegalStateException expected) {
+            assertEquals("region 0", expected.getMessage());
+            assertEquals(REGIONS - 1, done.get());
+        }
+    }
+
+    @Test
+    public void submittedRegionFailureIsRethrownOnceAllAreDone() {
+        AtomicInteger done = new AtomicInteger();
+        fsm.getRegion(1).addObserver(new FailingObserver("region 1"));
+        fsm.getRegion(2).addObserver(new SlowObserver(done));
+        fsm.start();
+
+        try {
+            fsm.stateAction(DoorTargetType.OPEN, null);
+            fail();
+        } catch (IllegalStateException expected) {
+            assertEquals("region 1", expected.getMessage());
+            assertEquals(1, done.get());
+        }
+        for (int i = 0; i < REGIONS; i++) {
+            assertEquals(DoorStateType.OPENED, fsm.getRegion(i).getCurrentState().getStateType());
+        }
+    }
+
+    @Test
+    public void observerRemovedDuringNotificationDoesNotSkipTheOthers() {
+        final int[] calls = new int[2];
+        fsm.addObserver(new OrthogonalStateMachine.RegionsObserver() {
+            @Override
+            public void onChanged(State[] states, ActionType actionType) {
+                calls[0]++;
+                fsm.removeObserver(this);
+            }
+        });
+        fsm.addObserver(new OrthogonalStateMachine.RegionsObserver() {
+            @Override
+            public void onChanged(State[] states, ActionType actionType) {
+                assertEquals(REGIONS, states.length);
+                calls[1]++;
+            }
+        });
+        fsm.start();
+        fsm.stateAction(DoorTargetType.OPEN, null);
+
+        // the start, then only the second observer is left
+        assertEquals(1, calls[0]);
+        assertEquals(2, calls[1]);
+    }
+
+    /**
+     * Fails the action of its region once it has changed.
+     */
+    private static class FailingObserver extends Fixtures.CountingObserver {
+
+        private final String message;
+
+        FailingObserver(String message) {
+            this.message = message;
+        }
+
+        @Override
+        public void onChanged(State state, ActionType actionType) {
+            if (state.getStateType() == DoorStateType.OPENED) {
+                throw new IllegalStateException(message);
+            }
+        }
+    }
+
+    /**
+     * Holds up the action of its region before counting it done.
+     */
+    private static class SlowObserver extends Fixtures.CountingObserver {
+
+        private final AtomicInteger done;
+
+        SlowObserver(AtomicInteger done) {
+            this.done = done;
+        }
+
+        @Override
+        public void onChanged(State state, ActionType actionType) {
+            if (state.getStateType() != DoorStateType.OPENED) {
+                return;
+            }
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            done.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2013 Android Alliance LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.androidalliance.fsm;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import uk.co.androidalliance.fsm.benchmarks.DoorTargetType;
+import uk.co.androidalliance.fsm.benchmarks.Fixtures;
+import uk.co.androidalliance.fsm.flow.ConflatingObserver;
+import uk.co.androidalliance.fsm.flow.ManualFrameClock;
+import uk.co.androidalliance.fsm.flow.StateChange;
+import uk.co.androidalliance.fsm.flow.StateChangePublisher;
+import uk.co.androidalliance.fsm.flow.Subscriber;
+import uk.co.androidalliance.fsm.flow.Subscription;
+import uk.co.androidalliance.fsm.journal.JournalReader;
+import uk.co.androidalliance.fsm.journal.JournalRecord;
+import uk.co.androidalliance.fsm.journal.TransitionJournal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Actions fired with a long payload or by ordinal, and where their payload ends up.
+ */
+public class PrimitiveActionTest {
+
+    private static final int WARM_UP = 200000;
+
+    private static final int MEASURED = 100000;
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void warmedUpPrimitiveActionsAllocateNothing() {
+        assumeTrue(Memory.canCountAllocations());
+        StateMachine fsm = Fixtures.door();
+        StateMachineDefinition definition = fsm.freeze();
+        int[] ordinals = new int[Fixtures.DOOR_CYCLE.length];
+        for (int i = 0; i < ordinals.length; i++) {
+            ordinals[i] = definition.ordinalOf(Fixtures.DOOR_CYCLE[i]);
+        }
+        Fixtures.PayloadObserver observer = new Fixtures.PayloadObserver();
+        fsm.addObserver(observer);
+        fsm.start();
+        fire(fsm, ordinals, WARM_UP);
+
+        long sum = observer.sum;
+        long before = Memory.allocatedBytes();
+        fire(fsm, ordinals, MEASURED);
+        long allocated = Memory.allocatedBytes() - before;
+
+        assertTrue("allocated " + allocated + " bytes in " + MEASURED + " transitions", allocated < MEASURED);
+        // half the actions carried their index as payload
+        long expected = 0;
+        for (int i = 1; i < MEASURED; i += 2) {
+            expected += i;
+        }
+        assertEquals(expected, observer.sum - sum);
+    }
+
+    /**
+     * Alternates actions without payload, by ordinal, and actions with one, by TargetType.
+     */
+    private static void fire(StateMachine fsm, int[] ordinals, int transitions) {
+        for (int i = 0; i < transitions; i++) {
+            int step = i % ordinals.length;
+            TransitionResult result = i % 2 == 0
+                    ? fsm.stateAction(ordinals[step])
+                    : fsm.stateAction(Fixtures.DOOR_CYCLE[step], i);
+            if (result != TransitionResult.CHANGED) {
+                throw new AssertionError(result);
+            }
+        }
+    }
+
+    @Test
+    public void journalRecordsThePrimitivePayload() throws Exception {
+        StateMachine fsm = Fixtures.door();
+        StateMachineDefinition definition = fsm.freeze();
+        fsm.start();
+        File directory = folder.newFolder();
+        TransitionJournal journal = new TransitionJournal(directory, definition, 1 << 16, null, 0);
+        fsm.addCommitListener(journal);
+
+        fsm.stateAction(DoorTargetType.OPEN, Long.MIN_VALUE + 42);
+        fsm.stateAction(DoorTargetType.CLOSE, null);
+        journal.close();
+
+        JournalReader reader = new JournalReader(directory);
+        JournalRecord record = new JournalRecord();
+        assertTrue(reader.next(record));
+        assertTrue(record.hasPrimitivePayload());
+        assertEquals(Long.MIN_VALUE + 42, record.getPrimitivePayload());
+        assertNull(record.getPayload());
+        assertEquals(definition.ordinalOf(DoorTargetType.OPEN), record.getTargetOrdinal());
+
+        assertTrue(reader.next(record));
+        assertFalse(record.hasPrimitivePayload());
+        assertEquals(0, record.getPrimitivePayload());
+        assertFalse(reader.next(record));
+        reader.close();
+    }
+
+    @Test
+    public void publishedChangesCarryThePrimitivePayload() {
+        StateChangePublisher publisher = new StateChangePublisher(DIRECT, 16, StateChangePublisher.OverflowStrategy.BUFFER);
+        final List<StateChange> changes = new ArrayList<StateChange>();
+        publisher.subscribe(new Subscriber<StateChange>() {
+            @Override
+            public void onSubscribe(Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(StateChange item) {
+                changes.add(item);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+        StateMachine fsm = Fixtures.door();
+        fsm.start();
+        publisher.attach(fsm);
+
+        fsm.stateAction(DoorTargetType.OPEN, 7);
+        fsm.stateAction(DoorTargetType.CLOSE, null);
+
+        assertEquals(2, changes.size());
+        assertSame(PrimitiveAction.INSTANCE, changes.get(0).getActionType());
+        assertEquals(7, changes.get(0).getPrimitivePayload());
+        assertNull(changes.get(1).getActionType());
+        assertEquals(0, changes.get(1).getPrimitivePayload());
+    }
+
+    @Test
+    public void conflatedChangesCarryThePrimitivePayload() {
+        ManualFrameClock clock = new ManualFrameClock();
+        final List<StateChange> changes = new ArrayList<StateChange>();
+        ConflatingObserver conflating = new ConflatingObserver(clock, new ConflatingObserver.Listener() {
+            @Override
+            public void onFrame(List<StateChange> frame) {
+                changes.addAll(frame);
+            }
+        });
+        StateMachine fsm = Fixtures.door();
+        fsm.start();
+        conflating.attach(fsm);
+
+        fsm.stateAction(DoorTargetType.OPEN, 1);
+        fsm.stateAction(DoorTargetType.CLOSE, 2);
+        clock.frame();
+
+        assertEquals(1, changes.size());
+        assertEquals(2, changes.get(0).getPrimitivePayload());
+    }
+
+    @Test
+    public void asyncObserverForwardsThePrimitivePayload() throws InterruptedException {
+        final CountDownLatch delivered = new CountDownLatch(2);
+        Fixtures.PayloadObserver delegate = new Fixtures.PayloadObserver() {
+            @Override
+            public void onChanged(State state, long payload) {
+                super.onChanged(state, payload);
+                delivered.countDown();
+            }
+        };
+        AsyncObserver async = new AsyncObserver(delegate, 16, AsyncObserver.WaitStrategy.PARK, AsyncObserver.OverflowPolicy.BLOCK);
+        StateMachine fsm = Fixtures.door();
+        fsm.start();
+        fsm.addObserver(async);
+        async.start();
+
+        fsm.stateAction(DoorTargetType.OPEN, 40);
+        fsm.stateAction(DoorTargetType.CLOSE, 2);
+
+        assertTrue(delivered.await(10, TimeUnit.SECONDS));
+        async.stop();
+        assertEquals(42, delegate.sum);
+    }
+}
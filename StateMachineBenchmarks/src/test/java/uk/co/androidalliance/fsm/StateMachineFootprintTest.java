@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2013 Android Alliance LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.androidalliance.fsm;
+
+import org.junit.Test;
+
+import uk.co.androidalliance.fsm.benchmarks.Fixtures;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Bytes retained by each live machine, with and without a shared definition.
+ */
+public class StateMachineFootprintTest {
+
+    private static final int COUNT = 20000;
+
+    // the object header, the current state and the few references every instance keeps
+    private static final long SHARED_LIMIT = 128;
+
+    @Test
+    public void sharedDefinitionCostsLittleMoreThanTheCurrentState() {
+        final StateMachineDefinition definition = Fixtures.door().freeze();
+
+        long own = bytesPerInstance(new Builder() {
+            @Override
+            public StateMachine build() {
+                return Fixtures.door();
+            }
+        });
+        long shared = bytesPerInstance(new Builder() {
+            @Override
+            public StateMachine build() {
+                return new StateMachine(definition);
+            }
+        });
+        System.out.println("bytes per instance, own states: " + own + ", shared definition: " + shared);
+
+        assertTrue("shared definition: " + shared + " bytes", shared <= SHARED_LIMIT);
+        assertTrue("own states: " + own + " bytes, shared definition: " + shared + " bytes", own > 10 * shared);
+    }
+
+    private static long bytesPerInstance(Builder builder) {
+        StateMachine[] machines = new StateMachine[COUNT];
+        long before = Memory.usedAfterGc();
+        for (int i = 0; i < COUNT; i++) {
+            machines[i] = builder.build();
+            machines[i].start();
+        }
+        long after = Memory.usedAfterGc();
+        // keeps the machines reachable until measured
+        assertTrue(machines[COUNT - 1].getCurrentState() != null);
+        return (after - before) / COUNT;
+    }
+
+    private interface Builder {
+        StateMachine build();
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2013 Android Alliance LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.androidalliance.fsm;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.co.androidalliance.fsm.benchmarks.DoorStateType;
+import uk.co.androidalliance.fsm.benchmarks.DoorTargetType;
+import uk.co.androidalliance.fsm.interfaces.ActionType;
+import uk.co.androidalliance.fsm.interfaces.TargetType;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * A door closing itself 10ms after being opened, with the wheel advanced by hand.
+ */
+public class StateTimeoutTest {
+
+    private static final long TIMEOUT_MILLIS = 10;
+
+    private TimingWheel wheel;
+
+    private StateMachineDefinition definition;
+
+    @Before
+    public void setUp() {
+        wheel = new TimingWheel(1);
+
+        StateMachine fsm = new StateMachine();
+        State opened = new State.Builder(DoorStateType.OPENED).setTimeout(TIMEOUT_MILLIS, DoorTargetType.CLOSE).build();
+        opened.defineTrans(DoorTargetType.CLOSE, DoorStateType.CLOSED);
+        State closed = new State.Builder(DoorStateType.CLOSED).build();
+        closed.defineTrans(DoorTargetType.OPEN, DoorStateType.OPENED);
+        fsm.registerInitialState(closed);
+        fsm.registerState(opened);
+        fsm.registerState(closed);
+        definition = fsm.freeze();
+    }
+
+    @Test
+    public void timeoutFiresItsTarget() {
+        StateMachine fsm = new StateMachine(definition);
+        fsm.setTimingWheel(wheel);
+        TimeoutCounter counter = new TimeoutCounter();
+        fsm.addCommitListener(counter);
+        fsm.start();
+
+        fsm.stateAction(DoorTargetType.OPEN, null);
+        assertEquals(1, wheel.size());
+        tick(TIMEOUT_MILLIS);
+        assertEquals(DoorStateType.OPENED, fsm.getCurrentState().getStateType());
+
+        tick(1);
+        assertEquals(DoorStateType.CLOSED, fsm.getCurrentState().getStateType());
+        assertEquals(1, counter.count);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void exitingTheStateCancelsItsTimeout() {
+        StateMachine fsm = new StateMachine(definition);
+        fsm.setTimingWheel(wheel);
+        TimeoutCounter counter = new TimeoutCounter();
+        fsm.addCommitListener(counter);
+        fsm.start();
+
+        fsm.stateAction(DoorTargetType.OPEN, null);
+        tick(TIMEOUT_MILLIS / 2);
+        fsm.stateAction(DoorTargetType.CLOSE, null);
+        assertEquals(0, wheel.size());
+
+        // opened again: the new timer counts from now
+        fsm.stateAction(DoorTargetType.OPEN, null);
+        tick(TIMEOUT_MILLIS);
+        assertEquals(DoorStateType.OPENED, fsm.getCurrentState().getStateType());
+        assertEquals(0, counter.count);
+
+        tick(1);
+        assertEquals(DoorStateType.CLOSED, fsm.getCurrentState().getStateType());
+        assertEquals(1, counter.count);
+    }
+
+    @Test
+    public void queuedTimeoutOfAStateEnteredAgainIsIgnored() {
+        ManualExecutor executor = new ManualExecutor();
+        MailboxStateMachine fsm = new MailboxStateMachine(definition, executor, MailboxStateMachine.DEFAULT_BATCH_SIZE);
+        fsm.setTimingWheel(wheel);
+        TimeoutCounter counter = new TimeoutCounter();
+        fsm.addCommitListener(counter);
+        fsm.start();
+        fsm.stateAction(DoorTargetType.OPEN, null);
+        executor.drain();
+
+        // the door is closed and opened again, then the first timer expires before the mailbox is drained
+        fsm.stateAction(DoorTargetType.CLOSE, null);
+        fsm.stateAction(DoorTargetType.OPEN, null);
+        tick(TIMEOUT_MILLIS + 1);
+        assertEquals(3, fsm.getPendingCount());
+        executor.drain();
+
+        assertEquals(DoorStateType.OPENED, fsm.getCurrentState().getStateType());
+        assertEquals(0, counter.count);
+        assertEquals(1, wheel.size());
+
+        tick(TIMEOUT_MILLIS + 1);
+        executor.drain();
+        assertEquals(DoorStateType.CLOSED, fsm.getCurrentState().getStateType());
+        assertEquals(1, counter.count);
+    }
+
+    /**
+     * Processes the given number of ticks; a timer of n ticks expires on the
+     * n + 1th, as the tick it was armed in counts for nothing.
+     */
+    private void tick(long ticks) {
+        for (long i = 0; i < ticks; i++) {
+            wheel.tick();
+        }
+    }
+
+    /**
+     * Counts the transitions fired by a timeout.
+     */
+    private static class TimeoutCounter implements StateMachine.CommitListener {
+
+        int count;
+
+        @Override
+        public void onCommit(StateMachine machine, State from, TargetType targetType, State to, ActionType actionType) {
+            if (actionType instanceof StateTimeout) {
+                count++;
+            }
+        }
+    }
+
+    /**
+     * Runs the mailbox tasks when drained.
+     */
+    private static class ManualExecutor implements Executor {
+
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<Runnable>();
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        void drain() {
+            while (!tasks.isEmpty()) {
+                tasks.poll().run();
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2013 Android Alliance LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.androidalliance.fsm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Expiry of the timers of a TimingWheel advanced by hand, one millisecond per tick.
+ */
+public class TimingWheelTest {
+
+    private static final int TIMERS = 5000000;
+
+    // spans the first wheel and the first two coarser ones
+    private static final int DELAYS = 100003;
+
+    @Test
+    public void timersExpireAtTheirDeadlineAcrossEveryLevel() {
+        TimingWheel wheel = new TimingWheel(1);
+        long[] delays = {
+                0, 1, 255, 256, 257, 1000,
+                // 256 * 64 ticks per slot of the second coarser wheel
+                16383, 16384, 16385,
+                // then of the third
+                1048575, 1048576, 1048577 + 4242
+        };
+        List<Recorder> recorders = new ArrayList<Recorder>();
+        for (long delay : delays) {
+            Recorder recorder = new Recorder(wheel, delay);
+            wheel.schedule(delay, recorder);
+            recorders.add(recorder);
+        }
+
+        long last = delays[delays.length - 1];
+        int run = 0;
+        while (wheel.getTick() <= last) {
+            run += wheel.tick();
+        }
+
+        assertEquals(delays.length, run);
+        assertEquals(0, wheel.size());
+        for (Recorder recorder : recorders) {
+            assertEquals("timer of " + recorder.delay + " ticks", 1, recorder.runs);
+            assertEquals("timer of " + recorder.delay + " ticks", recorder.delay, recorder.ranAt);
+        }
+    }
+
+    @Test
+    public void canceledTimersNeverRun() {
+        TimingWheel wheel = new TimingWheel(1);
+        Recorder kept = new Recorder(wheel, 300);
+        Recorder canceled = new Recorder(wheel, 300);
+        TimingWheel.Timeout keptTimeout = wheel.schedule(300, kept);
+        TimingWheel.Timeout canceledTimeout = wheel.schedule(300, canceled);
+        assertEquals(2, wheel.size());
+
+        // cancels while waiting in a coarser wheel, before its cascade
+        assertTrue(canceledTimeout.cancel());
+        assertFalse(canceledTimeout.cancel());
+        assertFalse(canceledTimeout.isPending());
+        assertEquals(1, wheel.size());
+
+        while (wheel.getTick() <= 300) {
+            wheel.tick();
+        }
+        assertEquals(1, kept.runs);
+        assertEquals(0, canceled.runs);
+        assertFalse(keptTimeout.isPending());
+        assertFalse(keptTimeout.cancel());
+    }
+
+    @Test
+    public void fiveMillionTimersWithOneInFiveCanceled() {
+        TimingWheel wheel = new TimingWheel(1);
+        Recorder[] recorders = new Recorder[DELAYS];
+        for (int delay = 0; delay < DELAYS; delay++) {
+            recorders[delay] = new Recorder(wheel, delay);
+        }
+
+        long scheduleNanos = System.nanoTime();
+        TimingWheel.Timeout[] toCancel = new TimingWheel.Timeout[TIMERS / 5];
+        for (int i = 0; i < TIMERS; i++) {
+            TimingWheel.Timeout timeout = wheel.schedule(i % DELAYS, recorders[i % DELAYS]);
+            if (i % 5 == 0) {
+                toCancel[i / 5] = timeout;
+            }
+        }
+        for (TimingWheel.Timeout timeout : toCancel) {
+            assertTrue(timeout.cancel());
+        }
+        scheduleNanos = System.nanoTime() - scheduleNanos;
+        assertEquals(TIMERS - toCancel.length, wheel.size());
+
+        long tickNanos = System.nanoTime();
+        long run = 0;
+        while (wheel.getTick() < DELAYS) {
+            run += wheel.tick();
+        }
+        tickNanos = System.nanoTime() - tickNanos;
+        System.out.println("TimingWheel, " + TIMERS + " timers: " + scheduleNanos / (TIMERS + toCancel.length)
+                + "ns per schedule or cancel, " + tickNanos / DELAYS + "ns per tick with its expiries and cascades");
+
+        assertEquals(TIMERS - toCancel.length, run);
+        assertEquals(0, wheel.size());
+        for (Recorder recorder : recorders) {
+            assertEquals(recorder.delay, recorder.ranAt);
+        }
+    }
+
+    /**
+     * Counts its runs and records the tick of the last one.
+     */
+    private static class Recorder implements Runnable {
+
+        final TimingWheel wheel;
+
+        final long delay;
+
+        int runs;
+
+        long ranAt = -1;
+
+        Recorder(TimingWheel wheel, long delay) {
+            this.wheel = wheel;
+            this.delay = delay;
+        }
+
+        @Override
+        public void run() {
+            runs++;
+            // the wheel is already past the tick being processed
+            ranAt = wheel.getTick() - 1;
+        }
+    }
+}
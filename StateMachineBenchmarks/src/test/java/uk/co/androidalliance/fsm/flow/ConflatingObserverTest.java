@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2013 Android Alliance LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.androidalliance.fsm.flow;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import uk.co.androidalliance.fsm.State;
+import uk.co.androidalliance.fsm.StateMachine;
+import uk.co.androidalliance.fsm.benchmarks.DoorStateType;
+import uk.co.androidalliance.fsm.benchmarks.DoorTargetType;
+import uk.co.androidalliance.fsm.benchmarks.Fixtures;
+import uk.co.androidalliance.fsm.interfaces.ActionType;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Conflation of door transitions, frames produced by hand with a ManualFrameClock.
+ */
+public class ConflatingObserverTest {
+
+    private final ManualFrameClock clock = new ManualFrameClock();
+
+    private final RecordingListener listener = new RecordingListener();
+
+    private final ConflatingObserver conflating = new ConflatingObserver(clock, listener);
+
+    @Test
+    public void burstOnOneMachineDeliversOnlyTheLatestState() {
+        StateMachine door = startedDoor();
+        door.stateAction(DoorTargetType.OPEN, null);
+        door.stateAction(DoorTargetType.CLOSE, null);
+        door.stateAction(DoorTargetType.LOCK, null);
+
+        assertEquals(1, clock.getPendingCount());
+        assertEquals(1, clock.frame());
+        assertEquals(1, listener.frames.size());
+        List<StateChange> changes = listener.frames.get(0);
+        assertEquals(1, changes.size());
+        assertSame(door, changes.get(0).getMachine());
+        assertEquals(DoorStateType.LOCKED, changes.get(0).getState().getStateType());
+
+        // nothing changed since, no frame is posted
+        assertEquals(0, clock.getPendingCount());
+        assertEquals(0, clock.frame());
+        assertEquals(1, listener.frames.size());
+    }
+
+    @Test
+    public void severalMachinesAreBatchedIntoOneFrame() {
+        StateMachine first = startedDoor();
+        StateMachine second = startedDoor();
+        StateMachine third = startedDoor();
+        third.stateAction(DoorTargetType.OPEN, null);
+        first.stateAction(DoorTargetType.OPEN, null);
+        second.stateAction(DoorTargetType.OPEN, null);
+        first.stateAction(DoorTargetType.CLOSE, null);
+
+        assertEquals(1, clock.frame());
+        assertEquals(1, listener.frames.size());
+        List<StateChange> changes = listener.frames.get(0);
+        assertEquals(3, changes.size());
+        // in the order of their first change, each with its latest state
+        assertSame(third, changes.get(0).getMachine());
+        assertSame(first, changes.get(1).getMachine());
+        assertSame(second, changes.get(2).getMachine());
+        assertEquals(DoorStateType.OPENED, changes.get(0).getState().getStateType());
+        assertEquals(DoorStateType.CLOSED, changes.get(1).getState().getStateType());
+        assertEquals(DoorStateType.OPENED, changes.get(2).getState().getStateType());
+    }
+
+    @Test
+    public void countsTheReceivedAndDeliveredChanges() {
+        StateMachine first = startedDoor();
+        StateMachine second = startedDoor();
+        for (int i = 0; i < 10; i++) {
+            first.stateAction(Fixtures.DOOR_CYCLE[i % Fixtures.DOOR_CYCLE.length], null);
+        }
+        second.stateAction(DoorTargetType.OPEN, null);
+        assertEquals(11, conflating.getReceivedCount());
+        assertEquals(0, conflating.getDeliveredCount());
+
+        clock.frame();
+        assertEquals(11, conflating.getReceivedCount());
+        assertEquals(2, conflating.getDeliveredCount());
+
+        second.stateAction(DoorTargetType.CLOSE, null);
+        clock.frame();
+        assertEquals(12, conflating.getReceivedCount());
+        assertEquals(3, conflating.getDeliveredCount());
+        assertEquals(2, clock.getFrameCount());
+    }
+
+    @Test
+    public void subscribersReceiveTheLatestChangeIntoTheirStateType() {
+        RecordingStateListener locked = new RecordingStateListener();
+        RecordingStateListener opened = new RecordingStateListener();
+        conflating.subscribe(DoorStateType.LOCKED, locked);
+        conflating.subscribe(DoorStateType.OPENED, opened);
+        StateMachine first = startedDoor();
+        StateMachine second = startedDoor();
+        first.stateAction(DoorTargetType.OPEN, null);
+        first.stateAction(DoorTargetType.CLOSE, null);
+        first.stateAction(DoorTargetType.LOCK, null);
+        second.stateAction(DoorTargetType.OPEN, null);
+        clock.frame();
+
+        // the OPENED of the first door was superseded by its LOCKED
+        assertEquals(1, locked.states.size());
+        assertSame(first.getCurrentState(), locked.states.get(0));
+        assertEquals(1, opened.states.size());
+        assertSame(second.getCurrentState(), opened.states.get(0));
+
+        conflating.unsubscribe(DoorStateType.OPENED, opened);
+        second.stateAction(DoorTargetType.CLOSE, null);
+        second.stateAction(DoorTargetType.OPEN, null);
+        clock.frame();
+        assertEquals(1, opened.states.size());
+    }
+
+    private StateMachine startedDoor() {
+        StateMachine door = Fixtures.door();
+        door.start();
+        conflating.attach(door);
+        return door;
+    }
+
+    private static class RecordingListener implements ConflatingObserver.Listener {
+
+        final List<List<StateChange>> frames = new ArrayList<List<StateChange>>();
+
+        @Override
+        public void onFrame(List<StateChange> changes) {
+            frames.add(changes);
+        }
+    }
+
+    private static class RecordingStateListener implements StateMachine.StateListener {
+
+        final List<State> states = new ArrayList<State>();
+
+        @Override
+        public void onState(State state, ActionType actionType) {
+            states.add(state);
+        }
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2013 Android Alliance LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.androidalliance.fsm.flow;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.co.androidalliance.fsm.State;
+import uk.co.androidalliance.fsm.StateMachine;
+import uk.co.androidalliance.fsm.benchmarks.DoorStateType;
+import uk.co.androidalliance.fsm.benchmarks.Fixtures;
+import uk.co.androidalliance.fsm.interfaces.StateType;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Delivery of door transitions to fast subscribers, requesting everything,
+ * and slow ones, stuck in <code>onNext</code> until released.
+ */
+public class StateChangePublisherTest {
+
+    private static final int TOTAL = 200000;
+
+    private static final int MACHINES = 8;
+
+    // The state each step of Fixtures.DOOR_CYCLE ends in
+    private static final StateType[] CYCLE_STATES = {
+            DoorStateType.OPENED, DoorStateType.CLOSED, DoorStateType.LOCKED, DoorStateType.CLOSED
+    };
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test(timeout = 60000)
+    public void fastSubscriberReceivesEveryChangeInOrder() throws InterruptedException {
+        StateChangePublisher publisher = new StateChangePublisher(executor, TOTAL, StateChangePublisher.OverflowStrategy.BUFFER);
+        TestSubscriber fast = new TestSubscriber(Long.MAX_VALUE, null);
+        publisher.subscribe(fast);
+        StateMachine fsm = door(publisher);
+
+        long nanos = System.nanoTime();
+        cycle(fsm, TOTAL);
+        publisher.close();
+        fast.await();
+        nanos = System.nanoTime() - nanos;
+        System.out.println("StateChangePublisher, fast subscriber: " + TOTAL * 1000000000L / nanos + " changes/s");
+
+        assertNull(fast.error);
+        assertEquals(TOTAL, fast.received.get());
+        assertEquals(0, fast.outOfOrder);
+        assertEquals(0, publisher.getDroppedCount());
+    }
+
+    @Test(timeout = 60000)
+    public void slowSubscriberNeverBlocksTransitions() throws InterruptedException {
+        StateChangePublisher publisher = new StateChangePublisher(executor, 16, StateChangePublisher.OverflowStrategy.DROP);
+        CountDownLatch gate = new CountDownLatch(1);
+        TestSubscriber slow = new TestSubscriber(1, gate);
+        publisher.subscribe(slow);
+        StateMachine fsm = door(publisher);
+
+        // would hang here if a transition waited for the subscriber
+        long nanos = System.nanoTime();
+        cycle(fsm, TOTAL);
+        nanos = System.nanoTime() - nanos;
+        System.out.println("StateChangePublisher, stuck subscriber: " + TOTAL * 1000000000L / nanos + " transitions/s");
+
+        gate.countDown();
+        publisher.close();
+        slow.await();
+
+        assertNull(slow.error);
+        assertTrue("received " + slow.received.get(), slow.received.get() <= 16 + 1);
+        assertEquals(TOTAL, slow.received.get() + publisher.getDroppedCount());
+    }
+
+    @Test(timeout = 60000)
+    public void slowSubscriberDoesNotHoldBackFastOne() throws InterruptedException {
+        StateChangePublisher publisher = new StateChangePublisher(executor, TOTAL, StateChangePublisher.OverflowStrategy.BUFFER);
+        CountDownLatch gate = new CountDownLatch(1);
+        TestSubscriber slow = new TestSubscriber(1, gate);
+        TestSubscriber fast = new TestSubscriber(Long.MAX_VALUE, null);
+        publisher.subscribe(slow);
+        publisher.subscribe(fast);
+        StateMachine fsm = door(publisher);
+
+        cycle(fsm, TOTAL);
+        fast.awaitReceived(TOTAL);
+        assertTrue("received " + slow.received.get(), slow.received.get() <= 1);
+
+        gate.countDown();
+        publisher.close();
+        slow.await();
+        fast.await();
+        assertNull(slow.error);
+        assertEquals(TOTAL, slow.received.get());
+        assertEquals(0, slow.outOfOrder);
+        assertEquals(0, fast.outOfOrder);
+    }
+
+    @Test(timeout = 60000)
+    public void latestDeliversTheFinalStateOfEveryMachine() throws InterruptedException {
+        StateChangePublisher publisher = new StateChangePublisher(executor, MACHINES, StateChangePublisher.OverflowStrategy.LATEST);
+        CountDownLatch gate = new CountDownLatch(1);
+        TestSubscriber slow = new TestSubscriber(1, gate);
+        publisher.subscribe(slow);
+        StateMachine[] machines = new StateMachine[MACHINES];
+        for (int i = 0; i < machines.length; i++) {
+            machines[i] = door(publisher);
+        }
+
+        for (int i = 0; i < TOTAL; i++) {
+            // every machine stops somewhere else in the cycle
+            int machine = i % MACHINES;
+            if (i < TOTAL - MACHINES || machine % 2 == 0) {
+                machines[machine].stateAction(Fixtures.DOOR_CYCLE[(i / MACHINES) % Fixtures.DOOR_CYCLE.length], null);
+            }
+        }
+        gate.countDown();
+        publisher.close();
+        slow.await();
+
+        assertNull(slow.error);
+        assertTrue("received " + slow.received.get(), slow.received.get() <= 1 + MACHINES);
+        for (StateMachine machine : machines) {
+            assertSame(machine.getCurrentState(), slow.latest.get(machine));
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void bufferOverflowFailsOnceBufferedChangesAreDelivered() throws InterruptedException {
+        StateChangePublisher publisher = new StateChangePublisher(executor, 16, StateChangePublisher.OverflowStrategy.BUFFER);
+        CountDownLatch gate = new CountDownLatch(1);
+        TestSubscriber slow = new TestSubscriber(1, gate);
+        publisher.subscribe(slow);
+        StateMachine fsm = door(publisher);
+
+        cycle(fsm, 100);
+        gate.countDown();
+        slow.await();
+
+        assertTrue(slow.error instanceof IllegalStateException);
+        assertTrue("received " + slow.received.get(), slow.received.get() >= 16 && slow.received.get() <= 16 + 1);
+        assertEquals(0, publisher.getSubscriberCount());
+    }
+
+    @Test
+    public void demandIsHonoured() {
+        StateChangePublisher publisher = new StateChangePublisher(DIRECT, 1024, StateChangePublisher.OverflowStrategy.BUFFER);
+        TestSubscriber subscriber = new TestSubscriber(5, null);
+        subscriber.refill = false;
+        publisher.subscribe(subscriber);
+        StateMachine fsm = door(publisher);
+
+        cycle(fsm, 100);
+        assertEquals(5, subscriber.received.get());
+
+        subscriber.subscription.request(3);
+        assertEquals(8, subscriber.received.get());
+        assertEquals(0, subscriber.outOfOrder);
+    }
+
+    private static StateMachine door(StateChangePublisher publisher) {
+        StateMachine fsm = Fixtures.door();
+        fsm.start();
+        publisher.attach(fsm);
+        return fsm;
+    }
+
+    private static void cycle(StateMachine fsm, int transitions) {
+        for (int i = 0; i < transitions; i++) {
+            fsm.stateAction(Fixtures.DOOR_CYCLE[i % Fixtures.DOOR_CYCLE.length], null);
+        }
+    }
+
+    /**
+     * Requests one more change after each one, once past the initial demand,
+     * optionally waiting for a gate to open before the first.
+     */
+    private static class TestSubscriber implements Subscriber<StateChange> {
+
+        final long initialRequest;
+
+        final CountDownLatch gate;
+
+        final AtomicLong received = new AtomicLong();
+
+        final ConcurrentMap<StateMachine, State> latest = new ConcurrentHashMap<StateMachine, State>();
+
+        final CountDownLatch done = new CountDownLatch(1);
+
+        boolean refill = true;
+
+        volatile Subscription subscription;
+
+        volatile Throwable error;
+
+        // Changes of a single machine not following Fixtures.DOOR_CYCLE
+        volatile int outOfOrder;
+
+        TestSubscriber(long initialRequest, CountDownLatch gate) {
+            this.initialRequest = initialRequest;
+            this.gate = gate;
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(initialRequest);
+        }
+
+        @Override
+        public void onNext(StateChange item) {
+            if (gate != null) {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            long position = received.getAndIncrement();
+            if (item.getState().getStateType() != CYCLE_STATES[(int) (position % CYCLE_STATES.length)]) {
+                outOfOrder++;
+            }
+            latest.put(item.getMachine(), item.getState());
+            if (refill && initialRequest != Long.MAX_VALUE) {
+                subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+
+        void await() throws InterruptedException {
+            done.await();
+        }
+
+        void awaitReceived(long count) throws InterruptedException {
+            while (received.get() < count) {
+                TimeUnit.MILLISECONDS.sleep(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,392 @@
+/*
+ * Copyright (c) 2013 Android Alliance LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.androidalliance.fsm.compiler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates a switch-based machine for every type annotated with CompiledStateMachine.
+ * <p/>
+ * The annotations are read by name, so this processor does not depend on
+ * the library. Every mistake in the description, an unknown constant or a
+ * handler with the wrong signature for instance, is reported as a
+ * compilation error on the element at fault.</P>
+ */
+public class StateMachineProcessor extends AbstractProcessor {
+
+    static final String PACKAGE = "uk.co.androidalliance.fsm.annotations.";
+    static final String COMPILED = PACKAGE + "CompiledStateMachine";
+    static final String ACTION_TYPE = "uk.co.androidalliance.fsm.interfaces.ActionType";
+
+    // Phases in the order of the generated helpers
+    private static final String[] PHASES = {"OnExiting", "OnEntering", "OnChanged"};
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return new HashSet<String>(Arrays.asList(COMPILED, PACKAGE + "OnEntering", PACKAGE + "OnExiting", PACKAGE + "OnChanged"));
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement compiled = processingEnv.getElementUtils().getTypeElement(COMPILED);
+        if (compiled == null) {
+            return false;
+        }
+        for (Element element : roundEnv.getElementsAnnotatedWith(compiled)) {
+            try {
+                Spec spec = read((TypeElement) element);
+                if (spec != null) {
+                    write(spec);
+                }
+            } catch (IOException e) {
+                error(element, "Cannot write the generated machine: " + e.getMessage());
+            }
+        }
+        // the annotations are only meant for this processor
+        return true;
+    }
+
+    /**
+     * Reads and checks the description on a type.
+     *
+     * @return the description, or null once its errors have been reported.
+     */
+    private Spec read(TypeElement type) {
+        if (type.getModifiers().contains(Modifier.PRIVATE) || type.getModifiers().contains(Modifier.FINAL)
+                || (type.getNestingKind().isNested() && !type.getModifiers().contains(Modifier.STATIC)
+                && type.getKind() == ElementKind.CLASS)) {
+            error(type, "@CompiledStateMachine must be on a non-private, non-final, top-level or static type");
+            return null;
+        }
+        AnnotationMirror mirror = mirrorOf(type, COMPILED);
+        Map<String, AnnotationValue> values = valuesOf(mirror);
+
+        Spec spec = new Spec();
+        spec.type = type;
+        spec.name = (String) values.get("name").getValue();
+        spec.statesType = enumOf(type, mirror, values.get("states"));
+        spec.targetsType = enumOf(type, mirror, values.get("targets"));
+        if (spec.statesType == null || spec.targetsType == null) {
+            return null;
+        }
+        spec.states = constantsOf(spec.statesType);
+        spec.targets = constantsOf(spec.targetsType);
+        spec.initial = spec.states.indexOf(values.get("initial").getValue());
+        boolean valid = true;
+        if (spec.initial < 0) {
+            error(type, mirror, "Unknown initial state " + values.get("initial").getValue());
+            valid = false;
+        }
+
+        spec.table = new int[spec.states.size()][spec.targets.size()];
+        for (int[] row : spec.table) {
+            Arrays.fill(row, -1);
+        }
+        for (Object value : (List<?>) values.get("transitions").getValue()) {
+            AnnotationMirror transition = (AnnotationMirror) ((AnnotationValue) value).getValue();
+            Map<String, AnnotationValue> fields = valuesOf(transition);
+            int from = spec.states.indexOf(fields.get("from").getValue());
+            int on = spec.targets.indexOf(fields.get("on").getValue());
+            int to = spec.states.indexOf(fields.get("to").getValue());
+            if (from < 0 || on < 0 || to < 0) {
+                error(type, mirror, "Unknown constant in " + transition);
+                valid = false;
+            } else if (spec.table[from][on] >= 0) {
+                error(type, mirror, "Duplicate transition " + transition);
+                valid = false;
+            } else {
+                spec.table[from][on] = to;
+            }
+        }
+
+        TypeMirror actionType = processingEnv.getElementUtils().getTypeElement(ACTION_TYPE).asType();
+        spec.handlers = new Handler[PHASES.length][spec.states.size()][];
+        for (ExecutableElement method : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(type))) {
+            for (int phase = 0; phase < PHASES.length; phase++) {
+                AnnotationMirror handlerMirror = mirrorOf(method, PACKAGE + PHASES[phase]);
+                if (handlerMirror == null) {
+                    continue;
+                }
+                Object stateName = valuesOf(handlerMirror).get("value").getValue();
+                int state = spec.states.indexOf(stateName);
+                Handler handler = new Handler();
+                handler.name = method.getSimpleName().toString();
+                handler.returnsBoolean = method.getReturnType().getKind() == TypeKind.BOOLEAN;
+                handler.takesAction = method.getParameters().size() == 1;
+                if (state < 0) {
+                    error(method, handlerMirror, "Unknown state " + stateName);
+                    valid = false;
+                } else if (method.getModifiers().contains(Modifier.PRIVATE) || method.getModifiers().contains(Modifier.STATIC)) {
+                    error(method, "A handler must be neither private nor static");
+                    valid = false;
+                } else if (method.getParameters().size() > 1 || (handler.takesAction
+                        && !processingEnv.getTypeUtils().isAssignable(actionType, method.getParameters().get(0).asType()))) {
+                    error(method, "A handler takes no parameter or an ActionType");
+                    valid = false;
+                } else if (method.getReturnType().getKind() != TypeKind.VOID
+                        && !(handler.returnsBoolean && phase != 2)) {
+                    error(method, "A handler returns void, or a boolean when entering or exiting");
+                    valid = false;
+                } else {
+                    Handler[] current = spec.handlers[phase][state];
+                    Handler[] added = current == null ? new Handler[1] : Arrays.copyOf(current, current.length + 1);
+                    added[added.length - 1] = handler;
+                    spec.handlers[phase][state] = added;
+                }
+            }
+        }
+        return valid ? spec : null;
+    }
+
+    private void write(Spec spec) throws IOException {
+        String packageName = processingEnv.getElementUtils().getPackageOf(spec.type).getQualifiedName().toString();
+        String handlersType = spec.type.getQualifiedName().toString();
+        String statesType = spec.statesType.getQualifiedName().toString();
+        String targetsType = spec.targetsType.getQualifiedName().toString();
+        String qualified = packageName.isEmpty() ? spec.name : packageName + "." + spec.name;
+
+        StringBuilder out = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            out.append("package ").append(packageName).append(";\n\n");
+        }
+        out.append("import uk.co.androidalliance.fsm.TransitionResult;\n");
+        out.append("import uk.co.androidalliance.fsm.interfaces.ActionType;\n");
+        out.append("import uk.co.androidalliance.fsm.interfaces.TargetType;\n\n");
+        out.append("/**\n * Generated by StateMachineProcessor from ").append(spec.type.getSimpleName()).append(", do not edit.\n */\n");
+        out.append("public final class ").append(spec.name).append(" {\n\n");
+        out.append("    private final ").append(handlersType).append(" handlers;\n\n");
+        out.append("    // null until started\n");
+        out.append("    private ").append(statesType).append(" state;\n\n");
+        out.append("    public ").append(spec.name).append("(").append(handlersType).append(" handlers) {\n");
+        out.append("        this.handlers = handlers;\n");
+        out.append("    }\n\n");
+
+        // start
+        String initial = spec.states.get(spec.initial);
+        out.append("    public TransitionResult start() {\n");
+        out.append("        return start(null);\n");
+        out.append("    }\n\n");
+        out.append("    public TransitionResult start(ActionType actionType) {\n");
+        out.append("        if (!exit(state, actionType) || !enter").append(initial).append("(actionType)) {\n");
+        out.append("            return TransitionResult.CANCELED;\n");
+        out.append("        }\n");
+        out.append("        state = ").append(statesType).append(".").append(initial).append(";\n");
+        out.append("        changed").append(initial).append("(actionType);\n");
+        out.append("        return TransitionResult.CHANGED;\n");
+        out.append("    }\n\n");
+
+        // stateAction
+        out.append("    public TransitionResult stateAction(TargetType targetType, ActionType actionType) {\n");
+        out.append("        if (!(targetType instanceof ").append(targetsType).append(")) {\n");
+        out.append("            return TransitionResult.NO_TRANSITION;\n");
+        out.append("        }\n");
+        out.append("        return stateAction((").append(targetsType).append(") targetType, actionType);\n");
+        out.append("    }\n\n");
+        out.append("    public TransitionResult stateAction(").append(targetsType).append(" targetType, ActionType actionType) {\n");
+        out.append("        if (targetType == null || state == null) {\n");
+        out.append("            return TransitionResult.NO_TRANSITION;\n");
+        out.append("        }\n");
+        out.append("        // constant labels, resolved against the enums at run time, so reordering them is safe\n");
+        out.append("        switch (state) {\n");
+        for (int from = 0; from < spec.states.size(); from++) {
+            boolean any = false;
+            for (int on = 0; on < spec.targets.size(); on++) {
+                any |= spec.table[from][on] >= 0;
+            }
+            if (!any) {
+                continue;
+            }
+            out.append("            case ").append(spec.states.get(from)).append(":\n");
+            out.append("                switch (targetType) {\n");
+            for (int on = 0; on < spec.targets.size(); on++) {
+                int to = spec.table[from][on];
+                if (to < 0) {
+                    continue;
+                }
+                out.append("                    case ").append(spec.targets.get(on)).append(":\n");
+                out.append("                        if (!exit").append(spec.states.get(from)).append("(actionType) || !enter")
+                        .append(spec.states.get(to)).append("(actionType)) {\n");
+                out.append("                            return TransitionResult.CANCELED;\n");
+                out.append("                        }\n");
+                out.append("                        state = ").append(statesType).append(".").append(spec.states.get(to)).append(";\n");
+                out.append("                        changed").append(spec.states.get(to)).append("(actionType);\n");
+                out.append("                        return TransitionResult.CHANGED;\n");
+            }
+            out.append("                    default:\n");
+            out.append("                        return TransitionResult.NO_TRANSITION;\n");
+            out.append("                }\n");
+        }
+        out.append("            default:\n");
+        out.append("                return TransitionResult.NO_TRANSITION;\n");
+        out.append("        }\n");
+        out.append("    }\n\n");
+
+        out.append("    /**\n     * Get the current state, or null until started.\n     */\n");
+        out.append("    public ").append(statesType).append(" getCurrentState() {\n");
+        out.append("        return state;\n");
+        out.append("    }\n\n");
+
+        // exit dispatch for start
+        out.append("    private boolean exit(").append(statesType).append(" state, ActionType actionType) {\n");
+        out.append("        if (state == null) {\n");
+        out.append("            return true;\n");
+        out.append("        }\n");
+        out.append("        switch (state) {\n");
+        for (int s = 0; s < spec.states.size(); s++) {
+            out.append("            case ").append(spec.states.get(s)).append(":\n");
+            out.append("                return exit").append(spec.states.get(s)).append("(actionType);\n");
+        }
+        out.append("            default:\n");
+        out.append("                return true;\n");
+        out.append("        }\n");
+        out.append("    }\n");
+
+        // one helper per state and phase, calling the handlers directly
+        for (int s = 0; s < spec.states.size(); s++) {
+            for (int phase = 0; phase < PHASES.length; phase++) {
+                String prefix = phase == 0 ? "exit" : phase == 1 ? "enter" : "changed";
+                boolean guard = phase != 2;
+                out.append("\n    private ").append(guard ? "boolean " : "void ").append(prefix).append(spec.states.get(s))
+                        .append("(ActionType actionType) {\n");
+                Handler[] handlers = spec.handlers[phase][s];
+                boolean accepting = false;
+                if (handlers != null) {
+                    for (Handler handler : handlers) {
+                        if (handler.returnsBoolean && !accepting) {
+                            out.append("        boolean accepted = true;\n");
+                            accepting = true;
+                        }
+                    }
+                    for (Handler handler : handlers) {
+                        String call = "handlers." + handler.name + "(" + (handler.takesAction ? "actionType" : "") + ")";
+                        if (handler.returnsBoolean) {
+                            out.append("        accepted &= ").append(call).append(";\n");
+                        } else {
+                            out.append("        ").append(call).append(";\n");
+                        }
+                    }
+                }
+                if (guard) {
+                    out.append("        return ").append(accepting ? "accepted" : "true").append(";\n");
+                }
+                out.append("    }\n");
+            }
+        }
+        out.append("}\n");
+
+        Writer writer = processingEnv.getFiler().createSourceFile(qualified, spec.type).openWriter();
+        try {
+            writer.write(out.toString());
+        } finally {
+            writer.close();
+        }
+    }
+
+    private TypeElement enumOf(TypeElement type, AnnotationMirror mirror, AnnotationValue value) {
+        TypeMirror typeMirror = (TypeMirror) value.getValue();
+        Element element = typeMirror.getKind() == TypeKind.DECLARED ? ((DeclaredType) typeMirror).asElement() : null;
+        if (element == null || element.getKind() != ElementKind.ENUM) {
+            error(type, mirror, typeMirror + " is not an enum");
+            return null;
+        }
+        return (TypeElement) element;
+    }
+
+    private static List<String> constantsOf(TypeElement enumType) {
+        List<String> constants = new ArrayList<String>();
+        for (Element element : enumType.getEnclosedElements()) {
+            if (element.getKind() == ElementKind.ENUM_CONSTANT) {
+                constants.add(element.getSimpleName().toString());
+            }
+        }
+        return constants;
+    }
+
+    private static AnnotationMirror mirrorOf(Element element, String annotation) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(annotation)) {
+                return mirror;
+            }
+        }
+        return null;
+    }
+
+    private Map<String, AnnotationValue> valuesOf(AnnotationMirror mirror) {
+        Map<String, AnnotationValue> values = new LinkedHashMap<String, AnnotationValue>();
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+                : processingEnv.getElementUtils().getElementValuesWithDefaults(mirror).entrySet()) {
+            values.put(entry.getKey().getSimpleName().toString(), entry.getValue());
+        }
+        return values;
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    private void error(Element element, AnnotationMirror mirror, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element, mirror);
+    }
+
+    private static final class Spec {
+        TypeElement type;
+        String name;
+        TypeElement statesType;
+        TypeElement targetsType;
+        List<String> states;
+        List<String> targets;
+        int initial;
+        // index of the target state by [state][target], -1 for none
+        int[][] table;
+        // handlers by [phase][state], null for none
+        Handler[][][] handlers;
+    }
+
+    private static final class Handler {
+        String name;
+        boolean returnsBoolean;
+        boolean takesAction;
+    }
+}
@@ -0,0 +1,312 @@
+/*
+  ADAPTED FOR ANDROID FROM:
+  RobotLegs / PureMVC AS3 Utility - StateMachine
+  Copyright (c) 2008 Neil Manuell, Cliff Hall;
+  Copyright (c) 2013 Android Alliance Ltd
+  Your reuse is governed by the Creative Commons Attribution 3.0 License
+  http://creativecommons.org/licenses/by/3.0/
+ */
+package uk.co.androidalliance.fsm;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import uk.co.androidalliance.fsm.interfaces.ActionType;
+
+/**
+ * An Observer delivering the changed notifications of a StateMachine on its own thread.
+ * <p/>
+ * <code>onStateEntering</code> and <code>onStateExiting</code> are guards,
+ * they are forwarded to the delegate synchronously so that it can still call
+ * <code>stateCancel</code>. <code>onStateChanged</code> and
+ * <code>onChanged</code> are published into a preallocated ring buffer and
+ * delivered to the delegate, in order, by a dedicated consumer thread.</P>
+ * <p/>
+ * Neither side takes a lock: a publisher claims a slot with a
+ * compare-and-set on the tail sequence and releases it by writing the
+ * slot's sequence, which the consumer polls before taking the slot and
+ * moving the head on.</P>
+ * <p/>
+ * The payload of a PrimitiveAction is kept in the ring buffer too, and
+ * handed to the delegate if it is a PrimitiveObserver.</P>
+ * <p/>
+ * The same AsyncObserver may be added to several machines.</P>
+ */
+public class AsyncObserver implements StateMachine.PrimitiveObserver {
+
+    /**
+     * How a thread waits for the ring buffer, the consumer when it is empty
+     * and the producer when it is full with the BLOCK policy.
+     */
+    public enum WaitStrategy {
+        // Lowest latency, burns a core
+        BUSY_SPIN,
+        // Gives the core to other threads between checks
+        YIELD,
+        // Sleeps for a short time between checks
+        PARK
+    }
+
+    /**
+     * What a publish does when the ring buffer is full.
+     */
+    public enum OverflowPolicy {
+        // Waits for the consumer to make room, holding up the transition;
+        // throws an IllegalStateException when the consumer is not running
+        BLOCK,
+        // Overwrites the oldest pending notification
+        DROP_OLDEST,
+        // Throws an IllegalStateException from the transition
+        FAIL
+    }
+
+    private static final long PARK_NANOS = 50000L;
+
+    private final StateMachine.Observer delegate;
+
+    private final Slot[] slots;
+
+    private final int mask;
+
+    private final WaitStrategy waitStrategy;
+
+    private final OverflowPolicy overflowPolicy;
+
+    // Sequence of the next notification to deliver, moved on by the consumer,
+    // or by a publisher dropping the oldest notification
+    private final AtomicLong head = new AtomicLong();
+
+    // Sequence of the next notification to publish, claimed by the publishers
+    private final AtomicLong tail = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private volatile boolean running;
+
+    // Bumped by every start, a consumer thread of an older one exits
+    private volatile int generation;
+
+    private Thread consumer;
+
+    /**
+     * @param delegate the observer receiving the notifications.
+     * @param capacity the size of the ring buffer, rounded up to a power of two.
+     * @param waitStrategy how the threads wait for the ring buffer.
+     * @param overflowPolicy what to do when the ring buffer is full.
+     */
+    public AsyncObserver(StateMachine.Observer delegate, int capacity, WaitStrategy waitStrategy, OverflowPolicy overflowPolicy) {
+        if (delegate == null || capacity < 1 || waitStrategy == null || overflowPolicy == null) {
+            throw new IllegalArgumentException("capacity: " + capacity + ", waitStrategy: " + waitStrategy + ", overflowPolicy: " + overflowPolicy);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.delegate = delegate;
+        this.slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot();
+        }
+        this.mask = size - 1;
+        this.waitStrategy = waitStrategy;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Starts the consumer thread.
+     * <p/>
+     * A consumer thread still draining after <code>stop</code> is told to
+     * exit and joined first, so that a single thread ever delivers.</P>
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        final int current = ++generation;
+        Thread previous = consumer;
+        if (previous != null && previous != Thread.currentThread()) {
+            join(previous);
+        }
+        running = true;
+        consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                consume(current);
+            }
+        }, "AsyncObserver");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    /**
+     * Stops the consumer thread once the pending notifications have been delivered.
+     */
+    public synchronized void stop() {
+        running = false;
+    }
+
+    private static void join(Thread thread) {
+        boolean interrupted = false;
+        for (;;) {
+            try {
+                thread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void onStateEntering(State state) {
+        delegate.onStateEntering(state);
+    }
+
+    @Override
+    public void onStateExiting(State state) {
+        delegate.onStateExiting(state);
+    }
+
+    @Override
+    public void onStateChanged(State state) {
+        publish(false, state, null, 0L);
+    }
+
+    @Override
+    public void onChanged(State state, ActionType actionType) {
+        publish(true, state, actionType, 0L);
+    }
+
+    @Override
+    public void onChanged(State state, long payload) {
+        publish(true, state, PrimitiveAction.INSTANCE, payload);
+    }
+
+    /**
+     * Get the number of notifications waiting to be delivered.
+     */
+    public int getQueueDepth() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    /**
+     * Get the number of notifications dropped or refused because the ring buffer was full.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Get the size of the ring buffer
+     */
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    private void publish(boolean changed, State state, ActionType actionType, long payload) {
+        for (int spins = 0; ; spins++) {
+            long t = tail.get();
+            long h = head.get();
+            if (t - h >= slots.length) {
+                // with BLOCK, nothing would ever make room
+                if (overflowPolicy == OverflowPolicy.FAIL || (overflowPolicy == OverflowPolicy.BLOCK && !running)) {
+                    dropped.incrementAndGet();
+                    throw new IllegalStateException("AsyncObserver buffer full, capacity: " + slots.length
+                            + (running ? "" : ", consumer not running"));
+                }
+                // only drop a published notification, the publisher of another still owns its slot
+                if (overflowPolicy == OverflowPolicy.DROP_OLDEST && slots[(int) h & mask].sequence == h
+                        && head.compareAndSet(h, h + 1)) {
+                    dropped.incrementAndGet();
+                } else {
+                    idle(spins);
+                }
+                continue;
+            }
+            if (tail.compareAndSet(t, t + 1)) {
+                Slot slot = slots[(int) t & mask];
+                slot.set(changed, state, actionType, payload);
+                // releases the slot to the consumer
+                slot.sequence = t;
+                return;
+            }
+        }
+    }
+
+    private void consume(int current) {
+        Slot next = new Slot();
+        for (int spins = 0; ; ) {
+            if (generation != current) {
+                return;
+            }
+            long h = head.get();
+            Slot slot = slots[(int) h & mask];
+            if (slot.sequence == h) {
+                next.set(slot.changed, slot.state, slot.actionType, slot.payload);
+                // the slot is not cleared: once the head moves on, a publisher may be writing it
+                if (!head.compareAndSet(h, h + 1)) {
+                    // dropped by a publisher meanwhile, the copy may be torn
+                    continue;
+                }
+                spins = 0;
+                try {
+                    if (next.changed && next.actionType == PrimitiveAction.INSTANCE
+                            && delegate instanceof StateMachine.PrimitiveObserver) {
+                        ((StateMachine.PrimitiveObserver) delegate).onChanged(next.state, next.payload);
+                    } else if (next.changed) {
+                        delegate.onChanged(next.state, next.actionType);
+                    } else {
+                        delegate.onStateChanged(next.state);
+                    }
+                } catch (RuntimeException e) {
+                    // keep delivering to the delegate
+                    Thread thread = Thread.currentThread();
+                    thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+                }
+                next.set(false, null, null, 0L);
+            } else if (!running && tail.get() == h) {
+                return;
+            } else {
+                idle(spins++);
+            }
+        }
+    }
+
+    private void idle(int spins) {
+        switch (waitStrategy) {
+            case BUSY_SPIN:
+                break;
+            case YIELD:
+                Thread.yield();
+                break;
+            case PARK:
+            default:
+                // spin briefly before sleeping
+                if (spins < 100) {
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(PARK_NANOS);
+                }
+                break;
+        }
+    }
+
+    private static final class Slot {
+        // Sequence of the notification the slot holds, written last by its publisher
+        volatile long sequence = -1;
+        boolean changed;
+        State state;
+        ActionType actionType;
+        long payload;
+
+        void set(boolean changed, State state, ActionType actionType, long payload) {
+            this.changed = changed;
+            this.state = state;
+            this.actionType = actionType;
+            this.payload = payload;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+  ADAPTED FOR ANDROID FROM:
+  RobotLegs / PureMVC AS3 Utility - StateMachine
+  Copyright (c) 2008 Neil Manuell, Cliff Hall;
+  Copyright (c) 2013 Android Alliance Ltd
+  Your reuse is governed by the Creative Commons Attribution 3.0 License
+  http://creativecommons.org/licenses/by/3.0/
+ */
+package uk.co.androidalliance.fsm;
+
+import java.util.Collections;
+import java.util.List;
+
+import uk.co.androidalliance.fsm.interfaces.ActionType;
+
+/**
+ * The outcome of <code>stateActions</code>, also sent as the action of the
+ * single <code>onChanged</code> notification of a coalesced batch.
+ * <p/>
+ * The payload is the list of the actions that changed the state, in order.</P>
+ */
+public final class BatchSummary implements ActionType {
+
+    private final State initialState;
+    private final State finalState;
+    private final List<StateAction> applied;
+    private final int canceledCount;
+
+    BatchSummary(State initialState, State finalState, List<StateAction> applied, int canceledCount) {
+        this.initialState = initialState;
+        this.finalState = finalState;
+        this.applied = Collections.unmodifiableList(applied);
+        this.canceledCount = canceledCount;
+    }
+
+    /**
+     * Get the actions that changed the state, in order.
+     */
+    @Override
+    public Object getPayload() {
+        return applied;
+    }
+
+    /**
+     * Get the actions that changed the state, in order.
+     */
+    public List<StateAction> getApplied() {
+        return applied;
+    }
+
+    /**
+     * Get the action of the last step that changed the state, or null if none did.
+     */
+    public ActionType getLastActionType() {
+        return applied.isEmpty() ? null : applied.get(applied.size() - 1).getActionType();
+    }
+
+    /**
+     * Get the current state before the batch was applied
+     */
+    public State getInitialState() {
+        return initialState;
+    }
+
+    /**
+     * Get the current state after the batch was applied
+     */
+    public State getFinalState() {
+        return finalState;
+    }
+
+    /**
+     * Get the number of steps vetoed by an exiting or entering guard
+     */
+    public int getCanceledCount() {
+        return canceledCount;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchSummary: " + applied.size() + " applied, " + canceledCount + " canceled, from: "
+                + (initialState != null ? initialState.getStateType() : null)
+                + ", to: " + (finalState != null ? finalState.getStateType() : null);
+    }
+}
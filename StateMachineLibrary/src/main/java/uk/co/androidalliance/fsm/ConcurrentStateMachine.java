@@ -0,0 +1,175 @@
+/*
+  ADAPTED FOR ANDROID FROM:
+  RobotLegs / PureMVC AS3 Utility - StateMachine
+  Copyright (c) 2008 Neil Manuell, Cliff Hall;
+  Copyright (c) 2013 Android Alliance Ltd
+  Your reuse is governed by the Creative Commons Attribution 3.0 License
+  http://creativecommons.org/licenses/by/3.0/
+ */
+package uk.co.androidalliance.fsm;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import uk.co.androidalliance.fsm.interfaces.ActionType;
+import uk.co.androidalliance.fsm.interfaces.StateType;
+import uk.co.androidalliance.fsm.interfaces.TargetType;
+
+/**
+ * A StateMachine that can be driven from several threads at once.
+ * <p/>
+ * The guards of a transition run without holding any lock, and the
+ * transition is committed with a compare-and-set on the current state.
+ * A thread that loses the race either retries from the new current state,
+ * running the exiting and entering guards again, or gets
+ * {@link TransitionResult#STALE} back.</P>
+ * <p/>
+ * The exiting and entering callbacks are the guards, so they are sent before
+ * the compare-and-set and are speculative: a thread losing the race has sent
+ * them for a transition that never happens. Only the changed callbacks, the
+ * CommitListeners and the state timeouts follow a successful commit.</P>
+ * <p/>
+ * The cancel flag belongs to the transition running on the calling thread,
+ * so <code>stateCancel</code> must be called from inside the
+ * <code>onStateExiting</code> or <code>onStateEntering</code> callback it
+ * is meant to veto. Likewise, the payload of a PrimitiveAction belongs to
+ * the thread that fired it.</P>
+ */
+public class ConcurrentStateMachine extends StateMachine {
+
+    private final AtomicReference<State> current = new AtomicReference<State>();
+
+    private final ThreadLocal<boolean[]> canceledFlag = new ThreadLocal<boolean[]>() {
+        @Override
+        protected boolean[] initialValue() {
+            return new boolean[1];
+        }
+    };
+
+    private final ThreadLocal<long[]> primitivePayloads = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+
+    private final boolean retryStale;
+
+    // Orders the arming of the state timeouts by concurrent commits
+    private final Object timeoutLock = new Object();
+
+    /**
+     * ConcurrentStateMachine Constructor, retrying transitions that lose a race.
+     *
+     * @param definition the compiled definition, as returned by <code>freeze()</code>.
+     */
+    public ConcurrentStateMachine(StateMachineDefinition definition) {
+        this(definition, true);
+    }
+
+    /**
+     * @param definition the compiled definition, as returned by <code>freeze()</code>.
+     * @param retryStale whether a transition that loses a race is retried from
+     *                   the new current state instead of returning STALE.
+     */
+    public ConcurrentStateMachine(StateMachineDefinition definition, boolean retryStale) {
+        super(definition);
+        this.retryStale = retryStale;
+    }
+
+    @Override
+    public synchronized void addObserver(Observer observer) {
+        super.addObserver(observer);
+    }
+
+    @Override
+    public synchronized void removeObserver(Observer observer) {
+        super.removeObserver(observer);
+    }
+
+    @Override
+    public synchronized void addCommitListener(CommitListener commitListener) {
+        super.addCommitListener(commitListener);
+    }
+
+    @Override
+    public synchronized void removeCommitListener(CommitListener commitListener) {
+        super.removeCommitListener(commitListener);
+    }
+
+    @Override
+    public synchronized void subscribe(StateType stateType, Phase phase, StateListener listener) {
+        super.subscribe(stateType, phase, listener);
+    }
+
+    @Override
+    public synchronized void unsubscribe(StateType stateType, Phase phase, StateListener listener) {
+        super.unsubscribe(stateType, phase, listener);
+    }
+
+    @Override
+    public TransitionResult stateAction(TargetType targetType, ActionType actionType) {
+        for (;;) {
+            State from = current.get();
+            TransitionResult result = fire(from, targetType, actionType);
+            if (result != TransitionResult.STALE || !retryStale) {
+                return result;
+            }
+        }
+    }
+
+    @Override
+    public void stateCancel(TargetType action) {
+        canceledFlag.get()[0] = true;
+    }
+
+    @Override
+    protected boolean takeCanceled() {
+        boolean[] flag = canceledFlag.get();
+        boolean wasCanceled = flag[0];
+        flag[0] = false;
+        return wasCanceled;
+    }
+
+    @Override
+    public long getPrimitivePayload() {
+        return primitivePayloads.get()[0];
+    }
+
+    @Override
+    protected void setPrimitivePayload(long payload) {
+        primitivePayloads.get()[0] = payload;
+    }
+
+    @Override
+    protected TransitionResult transitionTo(State nextState, ActionType actionType) {
+        return transitionTo(current.get(), null, nextState, actionType);
+    }
+
+    @Override
+    protected boolean commit(State previousState, State nextState) {
+        return current.compareAndSet(previousState, nextState);
+    }
+
+    /**
+     * Arms the timeout of a state only while it is still current, so a commit
+     * overtaken by a later one cannot cancel the timer that one armed.
+     */
+    @Override
+    protected void armTimeout(State state) {
+        synchronized (timeoutLock) {
+            if (current.get() == state) {
+                super.armTimeout(state);
+            }
+        }
+    }
+
+    @Override
+    public void restore(State state) {
+        current.set(state);
+    }
+
+    @Override
+    public State getCurrentState() {
+        return current.get();
+    }
+}
@@ -0,0 +1,88 @@
+/*
+  ADAPTED FOR ANDROID FROM:
+  RobotLegs / PureMVC AS3 Utility - StateMachine
+  Copyright (c) 2008 Neil Manuell, Cliff Hall;
+  Copyright (c) 2013 Android Alliance Ltd
+  Your reuse is governed by the Creative Commons Attribution 3.0 License
+  http://creativecommons.org/licenses/by/3.0/
+ */
+package uk.co.androidalliance.fsm;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A queue drained on an Executor by at most one task at a time, in arrival order.
+ * <p/>
+ * Up to <code>batchSize</code> messages are processed per task handed to
+ * the Executor before it is given back.</P>
+ * <p/>
+ * If the Executor rejects the task, the exception is thrown back and the
+ * messages stay queued, to be drained once a later post gets a task accepted.</P>
+ *
+ * @param <E> the type of the queued messages.
+ */
+abstract class Mailbox<E> implements Runnable {
+
+    private final Queue<E> queue = new ConcurrentLinkedQueue<E>();
+
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private final Executor executor;
+
+    private final int batchSize;
+
+    Mailbox(Executor executor, int batchSize) {
+        if (executor == null || batchSize < 1) {
+            throw new IllegalArgumentException("executor: " + executor + ", batchSize: " + batchSize);
+        }
+        this.executor = executor;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Processes one message, always called by a single thread at a time.
+     */
+    abstract void process(E message);
+
+    final void post(E message) {
+        queue.offer(message);
+        if (scheduled.compareAndSet(false, true)) {
+            schedule();
+        }
+    }
+
+    private void schedule() {
+        try {
+            executor.execute(this);
+        } catch (RuntimeException e) {
+            // no task is coming, let the next post try again
+            scheduled.set(false);
+            throw e;
+        }
+    }
+
+    final int size() {
+        return queue.size();
+    }
+
+    @Override
+    public final void run() {
+        try {
+            for (int i = 0; i < batchSize; i++) {
+                E message = queue.poll();
+                if (message == null) {
+                    break;
+                }
+                process(message);
+            }
+        } finally {
+            scheduled.set(false);
+            if (!queue.isEmpty() && scheduled.compareAndSet(false, true)) {
+                schedule();
+            }
+        }
+    }
+}
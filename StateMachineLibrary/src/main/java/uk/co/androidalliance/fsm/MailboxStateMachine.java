@@ -0,0 +1,139 @@
+/*
+  ADAPTED FOR ANDROID FROM:
+  RobotLegs / PureMVC AS3 Utility - StateMachine
+  Copyright (c) 2008 Neil Manuell, Cliff Hall;
+  Copyright (c) 2013 Android Alliance Ltd
+  Your reuse is governed by the Creative Commons Attribution 3.0 License
+  http://creativecommons.org/licenses/by/3.0/
+ */
+package uk.co.androidalliance.fsm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import uk.co.androidalliance.fsm.interfaces.ActionType;
+import uk.co.androidalliance.fsm.interfaces.TargetType;
+
+/**
+ * A StateMachine processing its actions one at a time, in arrival order.
+ * <p/>
+ * <code>start</code> and <code>stateAction</code> only enqueue into the
+ * machine's mailbox and return {@link TransitionResult#QUEUED}. The mailbox
+ * is drained on the given Executor by a single consumer at a time, and each
+ * transition runs to completion before the next one begins, so an observer
+ * may fire the next action from inside its callback.</P>
+ * <p/>
+ * Up to <code>batchSize</code> queued actions are processed per task handed
+ * to the Executor before it is given back.</P>
+ */
+public class MailboxStateMachine extends StateMachine {
+
+    public static final int DEFAULT_BATCH_SIZE = 16;
+
+    // holds StateActions, PrimitiveMessages and Batches
+    private final Mailbox<Object> mailbox;
+
+    /**
+     * @param executor the Executor draining the mailbox, for example one posting to the main thread.
+     */
+    public MailboxStateMachine(Executor executor) {
+        this(null, executor, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param definition the compiled definition, or null to register states on this machine.
+     * @param executor the Executor draining the mailbox.
+     * @param batchSize the maximum number of actions processed per Executor task.
+     */
+    public MailboxStateMachine(StateMachineDefinition definition, Executor executor, int batchSize) {
+        super(definition);
+        this.mailbox = new Mailbox<Object>(executor, batchSize) {
+            @Override
+            void process(Object message) {
+                if (message instanceof Batch) {
+                    Batch batch = (Batch) message;
+                    MailboxStateMachine.super.stateActions(batch.actions, batch.coalesce);
+                    return;
+                }
+                if (message instanceof PrimitiveMessage) {
+                    PrimitiveMessage primitive = (PrimitiveMessage) message;
+                    setPrimitivePayload(primitive.payload);
+                    MailboxStateMachine.super.stateAction(primitive.targetType, PrimitiveAction.INSTANCE);
+                    return;
+                }
+                StateAction action = (StateAction) message;
+                if (action.getTargetType() == null) {
+                    MailboxStateMachine.super.start(action.getActionType());
+                } else {
+                    MailboxStateMachine.super.stateAction(action.getTargetType(), action.getActionType());
+                }
+            }
+        };
+    }
+
+    @Override
+    public void start(ActionType actionType) {
+        // a null target marks the start action
+        mailbox.post(new StateAction(null, actionType));
+    }
+
+    @Override
+    public TransitionResult stateAction(TargetType targetType, ActionType actionType) {
+        if (targetType == null) {
+            return TransitionResult.NO_TRANSITION;
+        }
+        mailbox.post(new StateAction(targetType, actionType));
+        return TransitionResult.QUEUED;
+    }
+
+    /**
+     * Enqueues the action with its payload, which takes one message object.
+     */
+    @Override
+    public TransitionResult stateAction(TargetType targetType, long payload) {
+        if (targetType == null) {
+            return TransitionResult.NO_TRANSITION;
+        }
+        mailbox.post(new PrimitiveMessage(targetType, payload));
+        return TransitionResult.QUEUED;
+    }
+
+    /**
+     * Enqueues the whole batch as one message of the mailbox.
+     *
+     * @return always null, the batch is applied later.
+     */
+    @Override
+    public BatchSummary stateActions(List<StateAction> actions, boolean coalesce) {
+        mailbox.post(new Batch(new ArrayList<StateAction>(actions), coalesce));
+        return null;
+    }
+
+    /**
+     * Get the number of actions and batches waiting in the mailbox.
+     */
+    public int getPendingCount() {
+        return mailbox.size();
+    }
+
+    private static final class PrimitiveMessage {
+        final TargetType targetType;
+        final long payload;
+
+        PrimitiveMessage(TargetType targetType, long payload) {
+            this.targetType = targetType;
+            this.payload = payload;
+        }
+    }
+
+    private static final class Batch {
+        final List<StateAction> actions;
+        final boolean coalesce;
+
+        Batch(List<StateAction> actions, boolean coalesce) {
+            this.actions = actions;
+            this.coalesce = coalesce;
+        }
+    }
+}
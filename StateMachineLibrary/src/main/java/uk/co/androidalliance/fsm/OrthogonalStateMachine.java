@@ -0,0 +1,283 @@
+/*
+  ADAPTED FOR ANDROID FROM:
+  RobotLegs / PureMVC AS3 Utility - StateMachine
+  Copyright (c) 2008 Neil Manuell, Cliff Hall;
+  Copyright (c) 2013 Android Alliance Ltd
+  Your reuse is governed by the Creative Commons Attribution 3.0 License
+  http://creativecommons.org/licenses/by/3.0/
+ */
+package uk.co.androidalliance.fsm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import uk.co.androidalliance.fsm.interfaces.ActionType;
+import uk.co.androidalliance.fsm.interfaces.TargetType;
+
+/**
+ * Independent aspects of one entity, each held in its own region, driven by the same actions.
+ * <p/>
+ * Every region is a StateMachine with its own definition and observers,
+ * see <code>getRegion</code>. An action is delivered to every region
+ * defining a transition for its TargetType, found through an index built
+ * once from the definitions. With an ExecutorService, such as a
+ * ForkJoinPool, the regions an action reaches are processed concurrently,
+ * the calling thread processing one of them, and the action returns once
+ * all of them are done.</P>
+ * <p/>
+ * After each action that changed at least one region, the RegionsObservers
+ * receive one <code>onChanged</code> with the current state of every
+ * region.</P>
+ */
+public class OrthogonalStateMachine {
+
+    public interface RegionsObserver {
+        /**
+         * @param states the current state of every region, by region index.
+         * @param actionType the action that changed them.
+         */
+        void onChanged(State[] states, ActionType actionType);
+    }
+
+    private static final int[] NO_REGIONS = new int[0];
+
+    private static final RegionsObserver[] NO_OBSERVERS = new RegionsObserver[0];
+
+    private final StateMachine[] regions;
+
+    // Regions defining a transition for each TargetType
+    private final Map<TargetType, int[]> regionsByTarget;
+
+    private final ExecutorService executor;
+
+    /**
+     * Copy-on-write array of observers; replaced, never mutated, so an
+     * action can iterate over a snapshot of it.
+     */
+    private volatile RegionsObserver[] observers = NO_OBSERVERS;
+
+    /**
+     * OrthogonalStateMachine Constructor processing the regions on the calling thread.
+     *
+     * @param definitions the compiled definition of every region.
+     */
+    public OrthogonalStateMachine(StateMachineDefinition... definitions) {
+        this(null, definitions);
+    }
+
+    /**
+     * @param executor processes the regions an action reaches concurrently, or null.
+     * @param definitions the compiled definition of every region.
+     */
+    public OrthogonalStateMachine(ExecutorService executor, StateMachineDefinition... definitions) {
+        if (definitions.length == 0) {
+            throw new IllegalArgumentException("No region");
+        }
+        this.executor = executor;
+        this.regions = new StateMachine[definitions.length];
+        Map<TargetType, List<Integer>> byTarget = new HashMap<TargetType, List<Integer>>();
+        for (int i = 0; i < definitions.length; i++) {
+            regions[i] = new StateMachine(definitions[i]);
+            for (State state : definitions[i].getStates().values()) {
+                for (TargetType targetType : state.transitions.keySet()) {
+                    List<Integer> indexes = byTarget.get(targetType);
+                    if (indexes == null) {
+                        indexes = new ArrayList<Integer>();
+                        byTarget.put(targetType, indexes);
+                    }
+                    if (!indexes.contains(i)) {
+                        indexes.add(i);
+                    }
+                }
+            }
+        }
+        regionsByTarget = new HashMap<TargetType, int[]>();
+        for (Map.Entry<TargetType, List<Integer>> entry : byTarget.entrySet()) {
+            int[] indexes = new int[entry.getValue().size()];
+            for (int i = 0; i < indexes.length; i++) {
+                indexes[i] = entry.getValue().get(i);
+            }
+            regionsByTarget.put(entry.getKey(), indexes);
+        }
+    }
+
+    /**
+     * Get the machine of a region, to add observers to it or to read its state.
+     */
+    public StateMachine getRegion(int index) {
+        return regions[index];
+    }
+
+    public int getRegionCount() {
+        return regions.length;
+    }
+
+    public synchronized void addObserver(RegionsObserver observer) {
+        if (observer == null) {
+            return;
+        }
+        RegionsObserver[] current = without(observers, observer);
+        RegionsObserver[] next = Arrays.copyOf(current, current.length + 1);
+        next[current.length] = observer;
+        observers = next;
+    }
+
+    public synchronized void removeObserver(RegionsObserver observer) {
+        observers = without(observers, observer);
+    }
+
+    private static RegionsObserver[] without(RegionsObserver[] observers, RegionsObserver observer) {
+        for (int i = 0; i < observers.length; i++) {
+            if (observers[i] == observer) {
+                if (observers.length == 1) {
+                    return NO_OBSERVERS;
+                }
+                RegionsObserver[] next = new RegionsObserver[observers.length - 1];
+                System.arraycopy(observers, 0, next, 0, i);
+                System.arraycopy(observers, i + 1, next, i, observers.length - i - 1);
+                return next;
+            }
+        }
+        return observers;
+    }
+
+    public void start() {
+        start(null);
+    }
+
+    /**
+     * Starts every region, then notifies the RegionsObservers once.
+     */
+    public void start(ActionType actionType) {
+        for (StateMachine region : regions) {
+            region.start(actionType);
+        }
+        notifyChanged(actionType);
+    }
+
+    /**
+     * Delivers an action to every region defining a transition for it.
+     *
+     * @return CHANGED if any region changed, otherwise CANCELED, REJECTED or
+     *         STALE if any region gave that, or NO_TRANSITION.
+     */
+    public TransitionResult stateAction(final TargetType targetType, final ActionType actionType) {
+        int[] indexes = targetType != null ? regionsByTarget.get(targetType) : null;
+        if (indexes == null) {
+            indexes = NO_REGIONS;
+        }
+        TransitionResult[] results = new TransitionResult[indexes.length];
+        if (executor == null || indexes.length < 2) {
+            for (int i = 0; i < indexes.length; i++) {
+                results[i] = regions[indexes[i]].stateAction(targetType, actionType);
+            }
+        } else {
+            List<Future<TransitionResult>> pending = new ArrayList<Future<TransitionResult>>(indexes.length - 1);
+            for (int i = 1; i < indexes.length; i++) {
+                final StateMachine region = regions[indexes[i]];
+                pending.add(executor.submit(new Callable<TransitionResult>() {
+                    @Override
+                    public TransitionResult call() {
+                        return region.stateAction(targetType, actionType);
+                    }
+                }));
+            }
+            Throwable failure = null;
+            try {
+                results[0] = regions[indexes[0]].stateAction(targetType, actionType);
+            } catch (RuntimeException e) {
+                failure = e;
+            } catch (Error e) {
+                failure = e;
+            } finally {
+                // the submitted regions are awaited even when region 0 failed
+                join(pending, results, failure);
+            }
+        }
+
+        TransitionResult outcome = TransitionResult.NO_TRANSITION;
+        for (TransitionResult result : results) {
+            if (result == TransitionResult.CHANGED) {
+                outcome = result;
+                break;
+            }
+            if (result != TransitionResult.NO_TRANSITION) {
+                outcome = result;
+            }
+        }
+        if (outcome == TransitionResult.CHANGED) {
+            notifyChanged(actionType);
+        }
+        return outcome;
+    }
+
+    /**
+     * Get the current state of every region, by region index.
+     */
+    public State[] getCurrentStates() {
+        State[] states = new State[regions.length];
+        for (int i = 0; i < regions.length; i++) {
+            states[i] = regions[i].getCurrentState();
+        }
+        return states;
+    }
+
+    private void notifyChanged(ActionType actionType) {
+        // Observers added or removed meanwhile take effect from the next action
+        RegionsObserver[] observers = this.observers;
+        if (observers.length == 0) {
+            return;
+        }
+        State[] states = getCurrentStates();
+        for (int i = 0; i < observers.length; i++) {
+            observers[i].onChanged(states, actionType);
+        }
+    }
+
+    /**
+     * Waits for every submitted region, then rethrows the first failure:
+     * the calling thread's own, or else the first region to fail in order.
+     */
+    private static void join(List<Future<TransitionResult>> pending, TransitionResult[] results,
+                             Throwable failure) {
+        boolean interrupted = false;
+        try {
+            for (int i = 0; i < pending.size(); i++) {
+                for (;;) {
+                    try {
+                        results[i + 1] = pending.get(i).get();
+                        break;
+                    } catch (InterruptedException e) {
+                        // the region is still running, wait for it
+                        interrupted = true;
+                    } catch (ExecutionException e) {
+                        if (failure == null) {
+                            failure = e.getCause();
+                        }
+                        break;
+                    }
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        if (failure != null) {
+            throw new IllegalStateException(failure);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+/*
+  ADAPTED FOR ANDROID FROM:
+  RobotLegs / PureMVC AS3 Utility - StateMachine
+  Copyright (c) 2008 Neil Manuell, Cliff Hall;
+  Copyright (c) 2013 Android Alliance Ltd
+  Your reuse is governed by the Creative Commons Attribution 3.0 License
+  http://creativecommons.org/licenses/by/3.0/
+ */
+package uk.co.androidalliance.fsm;
+
+/**
+ * The notifications sent for a state during a transition, in the order they are sent.
+ */
+public enum Phase {
+
+    // The state is about to be left, see Observer.onStateExiting
+    EXITING,
+
+    // The state is about to be entered, see Observer.onStateEntering
+    ENTERING,
+
+    // The state-specific changed notification, see Observer.onStateChanged
+    CHANGED,
+
+    // The general changed notification, see Observer.onChanged
+    ANY_CHANGE
+}
@@ -0,0 +1,42 @@
+/*
+  ADAPTED FOR ANDROID FROM:
+  RobotLegs / PureMVC AS3 Utility - StateMachine
+  Copyright (c) 2008 Neil Manuell, Cliff Hall;
+  Copyright (c) 2013 Android Alliance Ltd
+  Your reuse is governed by the Creative Commons Attribution 3.0 License
+  http://creativecommons.org/licenses/by/3.0/
+ */
+package uk.co.androidalliance.fsm;
+
+import uk.co.androidalliance.fsm.interfaces.ActionType;
+
+/**
+ * The action passed along a transition fired with <code>stateAction(TargetType, long)</code>.
+ * <p/>
+ * A single instance stands for every such action, so that firing one
+ * allocates nothing. Its payload is null: the long is handed to
+ * PrimitiveObservers, and can be read by guards and listeners with
+ * <code>StateMachine.getPrimitivePayload()</code> while the transition runs.</P>
+ * <p/>
+ * The TransitionJournal records the long, the StateChanges of the flow
+ * package carry it and an AsyncObserver forwards it to a PrimitiveObserver
+ * delegate. Anything else given the PrimitiveAction after the transition
+ * only knows that there was a payload.</P>
+ */
+public final class PrimitiveAction implements ActionType {
+
+    public static final PrimitiveAction INSTANCE = new PrimitiveAction();
+
+    private PrimitiveAction() {
+    }
+
+    @Override
+    public Object getPayload() {
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "PrimitiveAction";
+    }
+}
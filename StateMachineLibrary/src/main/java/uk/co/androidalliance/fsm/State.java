@@ -11,6 +11,8 @@ package uk.co.androidalliance.fsm;
 import uk.co.androidalliance.fsm.interfaces.TargetType;
 import uk.co.androidalliance.fsm.interfaces.StateType;
 
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -19,9 +21,15 @@ public class State {
     // Transition map of actions to target states
     protected Map<TargetType, StateType> transitions = new HashMap<TargetType, StateType>();
 
+    // Guards of the transitions that have any, cheapest first, allocated on first use
+    protected Map<TargetType, TransitionGuard[]> guards;
+
     // The state name
     protected StateType stateType;
 
+    // The enclosing state, whose transitions this state inherits, may be null
+    protected StateType parent;
+
     // The notification to dispatch when entering the state
     protected Object entering;
 
@@ -31,14 +39,21 @@ public class State {
     // The notification to dispatch when the state has actually changed
     protected Object changed;
 
+    // The action fired when the state is still current after timeoutMillis, may be null
+    protected TargetType timeoutTarget;
+    protected long timeoutMillis;
+
     /**
      * Constructor.
      */
     private State(Builder builder) {
         this.stateType = builder.stateType;
+        this.parent = builder.parent;
         this.entering = builder.entering;
         this.exiting = builder.exiting;
         this.changed = builder.changed;
+        this.timeoutTarget = builder.timeoutTarget;
+        this.timeoutMillis = builder.timeoutMillis;
     }
 
     /**
@@ -54,12 +69,43 @@ public class State {
         transitions.put(targetType, stateType);
     }
 
+    /**
+     * Define a guarded transition.
+     *
+     * @param targetType the name of the StateMachine.ACTION event type.
+     * @param stateType the name of the target state to transition to.
+     * @param transitionGuards the guards which must all accept the transition, in any order.
+     */
+    public void defineTrans(TargetType targetType, StateType stateType, TransitionGuard... transitionGuards) {
+        if (getTarget(targetType) != null) {
+            return;
+        }
+        transitions.put(targetType, stateType);
+        if (transitionGuards.length == 0) {
+            return;
+        }
+        TransitionGuard[] sorted = transitionGuards.clone();
+        Arrays.sort(sorted, new Comparator<TransitionGuard>() {
+            @Override
+            public int compare(TransitionGuard lhs, TransitionGuard rhs) {
+                return lhs.getCost() < rhs.getCost() ? -1 : (lhs.getCost() == rhs.getCost() ? 0 : 1);
+            }
+        });
+        if (guards == null) {
+            guards = new HashMap<TargetType, TransitionGuard[]>();
+        }
+        guards.put(targetType, sorted);
+    }
+
     /**
      * Remove a previously defined transition.
      */
     public void removeTrans(TargetType targetType) {
         //transitions.put(action, null);
         transitions.remove(targetType);
+        if (guards != null) {
+            guards.remove(targetType);
+        }
     }
 
     /**
@@ -69,6 +115,13 @@ public class State {
         return transitions.get(targetType);
     }
 
+    /**
+     * Get the guards of a transition, cheapest first, or null if it has none.
+     */
+    public TransitionGuard[] getGuards(TargetType targetType) {
+        return guards != null ? guards.get(targetType) : null;
+    }
+
     /**
      * Get the state type
      */
@@ -76,6 +129,13 @@ public class State {
         return stateType;
     }
 
+    /**
+     * Get the type of the enclosing state, or null for a top-level state
+     */
+    public StateType getParent(){
+        return parent;
+    }
+
     /**
      * Get the entering object
      */
@@ -97,17 +157,34 @@ public class State {
         return changed;
     }
 
+    /**
+     * Get the action fired when the state times out, or null
+     */
+    public TargetType getTimeoutTarget(){
+        return timeoutTarget;
+    }
+
+    /**
+     * Get how long the state may stay current before timing out
+     */
+    public long getTimeoutMillis(){
+        return timeoutMillis;
+    }
+
     @Override
     public String toString (){
-        return "State: " + stateType + ", entering: " + entering + ", exiting: " + exiting + ", changed: " + changed;
+        return "State: " + stateType + (parent != null ? ", parent: " + parent : "") + ", entering: " + entering + ", exiting: " + exiting + ", changed: " + changed;
     }
 
     public static class Builder {
 
         private final StateType stateType;
+        private StateType parent;
         private Object entering;
         private Object exiting;
         private Object changed;
+        private TargetType timeoutTarget;
+        private long timeoutMillis;
 
         /**
          * @param stateType the id of the state
@@ -116,6 +193,15 @@ public class State {
             this.stateType = stateType;
         }
 
+        /**
+         * @param parent the type of the enclosing state, whose transitions are
+         *               inherited unless this state defines the same ones
+         */
+        public Builder setParent(StateType parent){
+            this.parent = parent;
+            return this;
+        }
+
         /**
          *  @param entering an optional event Object to be sent when entering this state
          */
@@ -139,6 +225,17 @@ public class State {
             return this;
         }
 
+        /**
+         * @param timeoutMillis how long the state may stay current, once entered
+         * @param timeoutTarget the action fired when it is still current after that,
+         *                      by the TimingWheel of the StateMachine
+         */
+        public Builder setTimeout(long timeoutMillis, TargetType timeoutTarget){
+            this.timeoutMillis = timeoutMillis;
+            this.timeoutTarget = timeoutTarget;
+            return this;
+        }
+
         public State build() {
             return new State(this);
         }
@@ -0,0 +1,49 @@
+/*
+  ADAPTED FOR ANDROID FROM:
+  RobotLegs / PureMVC AS3 Utility - StateMachine
+  Copyright (c) 2008 Neil Manuell, Cliff Hall;
+  Copyright (c) 2013 Android Alliance Ltd
+  Your reuse is governed by the Creative Commons Attribution 3.0 License
+  http://creativecommons.org/licenses/by/3.0/
+ */
+package uk.co.androidalliance.fsm;
+
+import uk.co.androidalliance.fsm.interfaces.ActionType;
+import uk.co.androidalliance.fsm.interfaces.TargetType;
+
+/**
+ * A target and its optional action, as passed to <code>stateAction</code>.
+ */
+public final class StateAction {
+
+    private final TargetType targetType;
+    private final ActionType actionType;
+
+    /**
+     * @param targetType the target of the action.
+     * @param actionType the optional action data, may be null.
+     */
+    public StateAction(TargetType targetType, ActionType actionType) {
+        this.targetType = targetType;
+        this.actionType = actionType;
+    }
+
+    /**
+     * Get the target type
+     */
+    public TargetType getTargetType() {
+        return targetType;
+    }
+
+    /**
+     * Get the action type
+     */
+    public ActionType getActionType() {
+        return actionType;
+    }
+
+    @Override
+    public String toString() {
+        return "StateAction: " + targetType + ", action: " + actionType;
+    }
+}
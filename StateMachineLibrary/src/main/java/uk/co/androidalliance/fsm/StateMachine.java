@@ -12,6 +12,7 @@ package uk.co.androidalliance.fsm;
 import java.util.*;
 
 import uk.co.androidalliance.fsm.interfaces.ActionType;
+import uk.co.androidalliance.fsm.metrics.MetricsSink;
 import uk.co.androidalliance.fsm.interfaces.TargetType;
 import uk.co.androidalliance.fsm.interfaces.StateType;
 
@@ -24,74 +25,240 @@ public class StateMachine {
         void onChanged(State state, ActionType actionType);
     }
 
-    protected List<Observer> observers;
+    /**
+     * An Observer given the long payload of the actions fired with
+     * <code>stateAction(TargetType, long)</code>, without boxing it.
+     */
+    public interface PrimitiveObserver extends Observer {
+        /**
+         * Called instead of <code>onChanged(State, ActionType)</code> when the action was a PrimitiveAction.
+         */
+        void onChanged(State state, long payload);
+    }
+
+    /**
+     * Told of every committed transition, before any changed notification,
+     * see <code>addCommitListener</code>.
+     */
+    public interface CommitListener {
+        /**
+         * @param from the state left, null when starting.
+         * @param targetType the target of the action fired, null when starting.
+         */
+        void onCommit(StateMachine machine, State from, TargetType targetType, State to, ActionType actionType);
+    }
+
+    /**
+     * Listens to a single phase of a single state, see <code>subscribe</code>.
+     */
+    public interface StateListener {
+        void onState(State state, ActionType actionType);
+    }
+
+    private static final Observer[] NO_OBSERVERS = new Observer[0];
+
+    private static final CommitListener[] NO_COMMIT_LISTENERS = new CommitListener[0];
+
+    private static final int PHASE_COUNT = Phase.values().length;
+
+    /**
+     * Copy-on-write array of observers; replaced, never mutated, so a
+     * transition can iterate over a snapshot of it.
+     */
+    protected volatile Observer[] observers = NO_OBSERVERS;
 
     public void addObserver(Observer observer) {
-        removeObserver(observer);
-        if (observers == null ) {
-            observers = new ArrayList<Observer>();
+        if (observer == null) {
+            return;
         }
-        observers.add(observer);
+        Observer[] current = without(observers, observer);
+        Observer[] next = Arrays.copyOf(current, current.length + 1);
+        next[current.length] = observer;
+        observers = next;
     }
 
     public void removeObserver(Observer observer) {
-        if (observers != null) {
-            Iterator<Observer> iterator = observers.iterator();
-            while (iterator.hasNext()) {
-                if (iterator.next() == observer) {
-                    iterator.remove();
+        observers = without(observers, observer);
+    }
+
+    public void removeAllObservers() {
+        observers = NO_OBSERVERS;
+    }
+
+    private static CommitListener[] without(CommitListener[] listeners, CommitListener listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == listener) {
+                if (listeners.length == 1) {
+                    return NO_COMMIT_LISTENERS;
+                }
+                CommitListener[] next = new CommitListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, next, 0, i);
+                System.arraycopy(listeners, i + 1, next, i, listeners.length - i - 1);
+                return next;
+            }
+        }
+        return listeners;
+    }
+
+    private static Observer[] without(Observer[] observers, Observer observer) {
+        for (int i = 0; i < observers.length; i++) {
+            if (observers[i] == observer) {
+                if (observers.length == 1) {
+                    return NO_OBSERVERS;
+                }
+                Observer[] next = new Observer[observers.length - 1];
+                System.arraycopy(observers, 0, next, 0, i);
+                System.arraycopy(observers, i + 1, next, i, observers.length - i - 1);
+                return next;
+            }
+        }
+        return observers;
+    }
+
+    /**
+     * Copy-on-write index of the listeners by state type, then by phase
+     * ordinal; null until the first subscription.
+     */
+    protected volatile Map<StateType, StateListener[][]> subscriptions;
+
+    /**
+     * Subscribes to one phase of one state only.
+     * <p/>
+     * The EXITING, ENTERING and CHANGED listeners are called when the state
+     * has the matching notification object set, as for the Observer
+     * callbacks; the ANY_CHANGE listeners whenever the state becomes current.
+     * An EXITING or ENTERING listener may cancel the transition.</P>
+     */
+    public void subscribe(StateType stateType, Phase phase, StateListener listener) {
+        if (stateType == null || phase == null || listener == null) {
+            return;
+        }
+        Map<StateType, StateListener[][]> next = subscriptions == null
+                ? new HashMap<StateType, StateListener[][]>()
+                : new HashMap<StateType, StateListener[][]>(subscriptions);
+        StateListener[][] byPhase = next.get(stateType);
+        byPhase = byPhase == null ? new StateListener[PHASE_COUNT][] : byPhase.clone();
+        StateListener[] current = byPhase[phase.ordinal()];
+        if (current == null) {
+            byPhase[phase.ordinal()] = new StateListener[] { listener };
+        } else {
+            for (StateListener subscribed : current) {
+                if (subscribed == listener) {
                     return;
                 }
             }
+            StateListener[] listeners = Arrays.copyOf(current, current.length + 1);
+            listeners[current.length] = listener;
+            byPhase[phase.ordinal()] = listeners;
         }
+        next.put(stateType, byPhase);
+        subscriptions = next;
     }
 
-    public void removeAllObservers() {
-        observers.clear();
+    public void unsubscribe(StateType stateType, Phase phase, StateListener listener) {
+        Map<StateType, StateListener[][]> current = subscriptions;
+        StateListener[][] byPhase = current != null ? current.get(stateType) : null;
+        if (byPhase == null || phase == null || byPhase[phase.ordinal()] == null) {
+            return;
+        }
+        StateListener[] listeners = byPhase[phase.ordinal()];
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == listener) {
+                StateListener[] remaining = new StateListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, remaining, 0, i);
+                System.arraycopy(listeners, i + 1, remaining, i, listeners.length - i - 1);
+                byPhase = byPhase.clone();
+                byPhase[phase.ordinal()] = remaining.length == 0 ? null : remaining;
+                Map<StateType, StateListener[][]> next = new HashMap<StateType, StateListener[][]>(current);
+                next.put(stateType, byPhase);
+                subscriptions = next;
+                return;
+            }
+        }
     }
 
-    protected void dispatchStateEntering(State state) {
-        if ( observers != null ) {
-            Iterator<Observer> iterator = observers.iterator();
-            while( iterator.hasNext() ) {
-               iterator.next().onStateEntering(state);
+    protected void dispatchSubscribers(Phase phase, State state, ActionType actionType) {
+        Map<StateType, StateListener[][]> subscriptions = this.subscriptions;
+        if (subscriptions == null) {
+            return;
+        }
+        StateListener[][] byPhase = subscriptions.get(state.getStateType());
+        StateListener[] listeners = byPhase != null ? byPhase[phase.ordinal()] : null;
+        if (listeners != null) {
+            for (int i = 0; i < listeners.length; i++) {
+                listeners[i].onState(state, actionType);
             }
         }
     }
 
-    protected void dispatchStateExiting(State state) {
-        if ( observers != null ) {
-            Iterator<Observer> iterator = observers.iterator();
-            while( iterator.hasNext() ) {
-                iterator.next().onStateExiting(state);
+    protected void dispatchStateEntering(Observer[] observers, State state) {
+        MetricsSink metrics = this.metrics;
+        for (int i = 0; i < observers.length; i++) {
+            if (metrics == null) {
+                observers[i].onStateEntering(state);
+            } else {
+                long start = System.nanoTime();
+                observers[i].onStateEntering(state);
+                metrics.onObserverLatency(observers[i], Phase.ENTERING, System.nanoTime() - start);
             }
         }
     }
 
-    protected void dispatchStateChanged(State state) {
-        if ( observers != null ) {
-            Iterator<Observer> iterator = observers.iterator();
-            while( iterator.hasNext() ) {
-                iterator.next().onStateChanged(state);
+    protected void dispatchStateExiting(Observer[] observers, State state) {
+        MetricsSink metrics = this.metrics;
+        for (int i = 0; i < observers.length; i++) {
+            if (metrics == null) {
+                observers[i].onStateExiting(state);
+            } else {
+                long start = System.nanoTime();
+                observers[i].onStateExiting(state);
+                metrics.onObserverLatency(observers[i], Phase.EXITING, System.nanoTime() - start);
             }
         }
     }
 
-    protected void dispatchChanged(State state, ActionType actionType) {
-        if ( observers != null ) {
-            Iterator<Observer> iterator = observers.iterator();
-            while( iterator.hasNext() ) {
-                iterator.next().onChanged(state, actionType);
+    protected void dispatchStateChanged(Observer[] observers, State state) {
+        MetricsSink metrics = this.metrics;
+        for (int i = 0; i < observers.length; i++) {
+            if (metrics == null) {
+                observers[i].onStateChanged(state);
+            } else {
+                long start = System.nanoTime();
+                observers[i].onStateChanged(state);
+                metrics.onObserverLatency(observers[i], Phase.CHANGED, System.nanoTime() - start);
             }
         }
     }
 
+    protected void dispatchChanged(Observer[] observers, State state, ActionType actionType) {
+        MetricsSink metrics = this.metrics;
+        boolean primitive = actionType == PrimitiveAction.INSTANCE;
+        long payload = primitive ? getPrimitivePayload() : 0L;
+        for (int i = 0; i < observers.length; i++) {
+            if (metrics == null) {
+                deliverChanged(observers[i], state, actionType, primitive, payload);
+            } else {
+                long start = System.nanoTime();
+                deliverChanged(observers[i], state, actionType, primitive, payload);
+                metrics.onObserverLatency(observers[i], Phase.ANY_CHANGE, System.nanoTime() - start);
+            }
+        }
+    }
+
+    private static void deliverChanged(Observer observer, State state, ActionType actionType, boolean primitive, long payload) {
+        if (primitive && observer instanceof PrimitiveObserver) {
+            ((PrimitiveObserver) observer).onChanged(state, payload);
+        } else {
+            observer.onChanged(state, actionType);
+        }
+    }
+
     protected State currentState;
 
     /**
-     * Map of States objects by name.
+     * Map of States objects by name, allocated on the first registration.
      */
-    protected Map<StateType,State> states = new HashMap<StateType, State>();
+    protected Map<StateType,State> states;
 
     /**
      * The initial state of the FSM.
@@ -99,9 +266,44 @@ public class StateMachine {
     protected State initial = null;
 
     /**
-     * The transition has been canceled.
+     * The compiled definition, once frozen.
+     */
+    protected StateMachineDefinition definition;
+
+    /**
+     * Receives the measurements of this machine, null when disabled.
      */
-    protected Boolean canceled;
+    protected MetricsSink metrics;
+
+    /**
+     * Copy-on-write array of the listeners told of every committed transition.
+     */
+    protected volatile CommitListener[] commitListeners = NO_COMMIT_LISTENERS;
+
+    /**
+     * Identifies this machine to journals and snapshots.
+     */
+    protected long id;
+
+    /**
+     * Runs the timeouts of the states, null when disabled.
+     */
+    protected TimingWheel timingWheel;
+
+    /**
+     * The timer of the current state's timeout, null when none is pending.
+     */
+    protected volatile TimingWheel.Timeout timeout;
+
+    /**
+     * The transition in progress has been canceled.
+     */
+    protected boolean canceled;
+
+    /**
+     * The payload of the PrimitiveAction being processed.
+     */
+    protected long primitivePayload;
 
     /**
      * StateMachine Constructor
@@ -109,21 +311,240 @@ public class StateMachine {
     public StateMachine() {
     }
 
+    /**
+     * StateMachine Constructor sharing an already compiled definition.
+     * <p/>
+     * The definition holds the states, transitions and payloads, so many
+     * instances can be created from it while each one only keeps its own
+     * current state and observers.</P>
+     *
+     * @param definition the compiled definition, as returned by <code>freeze()</code>.
+     */
+    public StateMachine(StateMachineDefinition definition) {
+        this.definition = definition;
+    }
+
+    /**
+     * @param definition the compiled definition, as returned by <code>freeze()</code>.
+     * @param id identifies the machine to journals and snapshots.
+     */
+    public StateMachine(StateMachineDefinition definition, long id) {
+        this.definition = definition;
+        this.id = id;
+    }
+
     public void start() {
         start(null);
     }
 
     public void start(ActionType actionType) {
+        State initial = definition != null ? definition.getInitial() : this.initial;
         if (initial != null) {
             transitionTo(initial, actionType);
         }
     }
 
-    public void stateAction(TargetType targetType, ActionType actionType) {
-        StateType newStateTarget = currentState.getTarget(targetType);
-        State newState = states.get(newStateTarget);
-        if (newStateTarget!=null) {
-            transitionTo(newState, actionType);
+    public TransitionResult stateAction(TargetType targetType, ActionType actionType) {
+        return fire(currentState, targetType, actionType);
+    }
+
+    /**
+     * Fires an action without payload by the ordinal of its TargetType, allocating nothing.
+     *
+     * @param targetOrdinal as given by <code>StateMachineDefinition.ordinalOf(TargetType)</code>.
+     * @throws IllegalStateException if the machine has no enum indexed definition.
+     */
+    public TransitionResult stateAction(int targetOrdinal) {
+        return stateAction(targetAt(targetOrdinal), null);
+    }
+
+    /**
+     * Fires an action by the ordinal of its TargetType, with a long payload.
+     *
+     * @see #stateAction(TargetType, long)
+     */
+    public TransitionResult stateAction(int targetOrdinal, long payload) {
+        return stateAction(targetAt(targetOrdinal), payload);
+    }
+
+    /**
+     * Fires an action carrying a long instead of an ActionType, allocating nothing.
+     * <p/>
+     * The transition runs with PrimitiveAction.INSTANCE as its action:
+     * PrimitiveObservers get the payload in <code>onChanged(State, long)</code>,
+     * other observers, guards and listeners get the PrimitiveAction and can
+     * read the payload with <code>getPrimitivePayload()</code>.</P>
+     */
+    public TransitionResult stateAction(TargetType targetType, long payload) {
+        // an observer may fire another one from its callback
+        long outer = getPrimitivePayload();
+        setPrimitivePayload(payload);
+        try {
+            return stateAction(targetType, PrimitiveAction.INSTANCE);
+        } finally {
+            setPrimitivePayload(outer);
+        }
+    }
+
+    /**
+     * Get the payload of the PrimitiveAction being processed by the calling thread,
+     * only meaningful from inside the callbacks of its transition.
+     */
+    public long getPrimitivePayload() {
+        return primitivePayload;
+    }
+
+    protected void setPrimitivePayload(long payload) {
+        primitivePayload = payload;
+    }
+
+    private TargetType targetAt(int targetOrdinal) {
+        if (definition == null || !definition.isEnumIndexed()) {
+            throw new IllegalStateException("Target ordinals need an enum indexed definition, call freeze() first");
+        }
+        return definition.targetAt(targetOrdinal);
+    }
+
+    /**
+     * Resolves an action fired from a state, checks the guards of its
+     * transition, then transitions.
+     *
+     * @param previousState the current state, as read by the caller.
+     * @return the outcome of the transition.
+     */
+    protected TransitionResult fire(State previousState, TargetType targetType, ActionType actionType) {
+        // A timeout queued before its state was left no longer applies
+        if (actionType instanceof StateTimeout && !((StateTimeout) actionType).isDue(previousState)) {
+            return TransitionResult.NO_TRANSITION;
+        }
+        State nextState = resolve(previousState, targetType);
+        if (nextState == null) {
+            return TransitionResult.NO_TRANSITION;
+        }
+        if (!accepts(previousState, targetType, actionType)) {
+            if (metrics != null) {
+                metrics.onRejected(previousState, targetType);
+            }
+            return TransitionResult.REJECTED;
+        }
+        return transitionTo(previousState, targetType, nextState, actionType);
+    }
+
+    /**
+     * Evaluates the guards of a transition, cheapest first.
+     *
+     * @return false as soon as one guard refuses the transition.
+     */
+    protected boolean accepts(State from, TargetType targetType, ActionType actionType) {
+        TransitionGuard[] guards;
+        if (definition != null) {
+            guards = definition.getGuards(from, targetType);
+        } else {
+            State owner = ownerOf(from, targetType);
+            guards = owner != null ? owner.getGuards(targetType) : null;
+        }
+        if (guards != null) {
+            for (int i = 0; i < guards.length; i++) {
+                if (!guards[i].accept(from, targetType, actionType)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Applies a batch of actions in one pass, notifying every step.
+     *
+     * @param actions the actions to apply, in order.
+     * @return a summary of the batch.
+     */
+    public BatchSummary stateActions(List<StateAction> actions) {
+        return stateActions(actions, false);
+    }
+
+    /**
+     * Applies a batch of actions in one pass.
+     * <p/>
+     * The exiting and entering guards run for every step. When coalescing,
+     * the <code>changed</code> notifications of the intermediate states are
+     * skipped and a single <code>onChanged</code> is sent for the final state,
+     * with the returned {@link BatchSummary} as its action.</P>
+     *
+     * @param actions the actions to apply, in order.
+     * @param coalesce whether to collapse the changed notifications into one.
+     * @return a summary of the batch.
+     */
+    public BatchSummary stateActions(List<StateAction> actions, boolean coalesce) {
+        State initialState = getCurrentState();
+        List<StateAction> applied = new ArrayList<StateAction>(actions.size());
+        int canceledCount = 0;
+        if (!coalesce) {
+            for (int i = 0, n = actions.size(); i < n; i++) {
+                StateAction action = actions.get(i);
+                TransitionResult result = applyNow(action.getTargetType(), action.getActionType());
+                if (result == TransitionResult.CHANGED) {
+                    applied.add(action);
+                } else if (result == TransitionResult.CANCELED) {
+                    canceledCount++;
+                }
+            }
+            return new BatchSummary(initialState, getCurrentState(), applied, canceledCount);
+        }
+
+        Observer[] observers = this.observers;
+        for (int i = 0, n = actions.size(); i < n; i++) {
+            StateAction action = actions.get(i);
+            TransitionResult result = commitNow(observers, action.getTargetType(), action.getActionType());
+            if (result == TransitionResult.CHANGED) {
+                applied.add(action);
+            } else if (result == TransitionResult.CANCELED) {
+                canceledCount++;
+            }
+        }
+        BatchSummary summary = new BatchSummary(initialState, getCurrentState(), applied, canceledCount);
+        if (!applied.isEmpty()) {
+            notifyChanged(observers, summary.getFinalState(), summary);
+        }
+        return summary;
+    }
+
+    /**
+     * Fires a step of a batch on the calling thread, never through the
+     * overridable <code>stateAction</code>, which may queue it instead.
+     * A step losing a race to another thread is retried from the new current state.
+     */
+    private TransitionResult applyNow(TargetType targetType, ActionType actionType) {
+        for (;;) {
+            TransitionResult result = fire(getCurrentState(), targetType, actionType);
+            if (result != TransitionResult.STALE) {
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Guards and commits a step of a coalesced batch, without its changed
+     * notifications. A step losing a race to another thread is resolved
+     * again and retried from the new current state.
+     */
+    private TransitionResult commitNow(Observer[] observers, TargetType targetType, ActionType actionType) {
+        for (;;) {
+            State previousState = getCurrentState();
+            State nextState = resolve(previousState, targetType);
+            if (nextState == null) {
+                return TransitionResult.NO_TRANSITION;
+            }
+            if (!accepts(previousState, targetType, actionType)) {
+                if (metrics != null) {
+                    metrics.onRejected(previousState, targetType);
+                }
+                return TransitionResult.REJECTED;
+            }
+            TransitionResult result = guardAndCommit(observers, previousState, targetType, nextState, actionType);
+            if (result != TransitionResult.STALE) {
+                return result;
+            }
         }
     }
 
@@ -131,12 +552,85 @@ public class StateMachine {
         canceled = true;
     }
 
+    /**
+     * Clears the cancel flag of the transition in progress.
+     *
+     * @return whether the transition had been canceled.
+     */
+    protected boolean takeCanceled() {
+        boolean wasCanceled = canceled;
+        canceled = false;
+        return wasCanceled;
+    }
+
+    /**
+     * Get the state reached by firing the given action from a state.
+     *
+     * @return the target State, or null if no transition is defined.
+     */
+    protected State resolve(State from, TargetType targetType) {
+        if (definition != null) {
+            return definition.getTarget(from, targetType);
+        }
+        State owner = ownerOf(from, targetType);
+        return owner != null ? states.get(owner.getTarget(targetType)) : null;
+    }
+
+    /**
+     * Get the state defining the transition of an action, the given state or
+     * the closest of its ancestors, when not frozen.
+     *
+     * @return the defining state, or null if no transition is defined.
+     */
+    private State ownerOf(State from, TargetType targetType) {
+        if (from == null || states == null) {
+            return null;
+        }
+        State owner = from;
+        // bounded, in case the parents form a cycle
+        for (int depth = 0; owner != null && depth <= states.size(); depth++) {
+            if (owner.getTarget(targetType) != null) {
+                return owner;
+            }
+            owner = owner.getParent() != null ? states.get(owner.getParent()) : null;
+        }
+        return null;
+    }
+
+    /**
+     * Compiles the registered states into an immutable definition.
+     * <p/>
+     * Once frozen, every <code>stateAction</code> is resolved through the
+     * definition and further calls to <code>registerInitialState</code>,
+     * <code>registerState</code> and <code>removeState</code> are ignored.
+     * Calling it again returns the existing definition.</P>
+     *
+     * @return the compiled definition.
+     */
+    public StateMachineDefinition freeze() {
+        if (definition == null) {
+            Collection<State> registered = states != null ? states.values() : Collections.<State>emptyList();
+            definition = new StateMachineDefinition(initial, registered);
+        }
+        return definition;
+    }
+
+    /**
+     * Get the compiled definition, or null if not frozen yet.
+     */
+    public StateMachineDefinition getDefinition() {
+        return definition;
+    }
+
     /**
      * Registers the initial state
      *
      * @param state the state to which to register the above commands
      */
     public void registerInitialState(State state) {
+        if (definition != null) {
+            return;
+        }
         this.initial = state;
     }
 
@@ -146,7 +640,12 @@ public class StateMachine {
      * @param state the state to which to register the above commands
      */
     public void registerState(State state) {
-        if (state == null || states.get(state.getStateType()) != null) {
+        if (definition != null || state == null) {
+            return;
+        }
+        if (states == null) {
+            states = new HashMap<StateType, State>();
+        } else if (states.get(state.getStateType()) != null) {
             return;
         }
         states.put(state.getStateType(), state);
@@ -161,7 +660,7 @@ public class StateMachine {
      * @param state
      */
     public void removeState(State state) {
-        if (!states.containsValue(state)) {
+        if (definition != null || states == null || !states.containsValue(state)) {
             return;
         }
         states.remove(state);
@@ -185,52 +684,287 @@ public class StateMachine {
      *
      * @param nextState the next State to transition to.
      * @param actionType is the optional Object that was sent in the <code>stateAction</code> method
+     * @return the outcome of the transition.
      */
-    protected void transitionTo(State nextState, ActionType actionType) {
+    protected TransitionResult transitionTo(State nextState, ActionType actionType) {
+        return transitionTo(currentState, null, nextState, actionType);
+    }
+
+    /**
+     * Transitions from the given state, which was read as the current one.
+     *
+     * @param previousState the state the transition leaves, may be null.
+     * @param targetType the target of the action fired, null when starting.
+     * @param nextState the next State to transition to.
+     * @param actionType is the optional Object that was sent in the <code>stateAction</code> method
+     * @return the outcome of the transition.
+     */
+    protected TransitionResult transitionTo(State previousState, TargetType targetType, State nextState, ActionType actionType) {
+        // Observers added or removed during this transition take effect from the next one
+        Observer[] observers = this.observers;
+
+        TransitionResult result = guardAndCommit(observers, previousState, targetType, nextState, actionType);
+        if (result == TransitionResult.CHANGED) {
+            notifyChanged(observers, nextState, actionType);
+        }
+        return result;
+    }
+
+    /**
+     * Runs the exiting and entering guards, then makes the next state current.
+     *
+     * @return the outcome of the transition, CHANGED once committed.
+     */
+    protected TransitionResult guardAndCommit(Observer[] observers, State previousState, TargetType targetType,
+                                              State nextState, ActionType actionType) {
         // Going nowhere?
         if (nextState == null) {
-            return;
+            return TransitionResult.NO_TRANSITION;
         }
 
         // Clear the cancel flag
-        canceled = false;
-
-        // Exit the current State 
-        if (currentState != null && currentState.getExiting() != null) {
-            //eventDispatcher.dispatchEvent( new StateEvent( currentState.exiting, null, data ));
-            dispatchStateExiting(currentState);
+        takeCanceled();
+
+        // The states to exit and enter when nested, null when flat
+        TransitionPath path = pathOf(previousState, targetType, nextState);
+
+        // Exit the current State, then the ancestors it does not share with the next one
+        if (path == null) {
+            exit(observers, previousState, actionType);
+        } else {
+            State[] exits = path.getExits();
+            for (int i = 0; i < exits.length; i++) {
+                exit(observers, exits[i], actionType);
+            }
         }
 
         // Check to see whether the exiting guard has been canceled
-        if (canceled) {
-            canceled = false;
-            return;
+        if (takeCanceled()) {
+            if (metrics != null) {
+                metrics.onCanceled(previousState, Phase.EXITING);
+            }
+            return TransitionResult.CANCELED;
         }
 
-        // Enter the next State 
-        if (nextState.getEntering() != null) {
-            //eventDispatcher.dispatchEvent( new StateEvent( nextState.entering, null, data ));
-            dispatchStateEntering(nextState);
+        // Enter the ancestors of the next State it does not share with the current one, then the next State
+        if (path == null) {
+            enter(observers, nextState, actionType);
+        } else {
+            State[] enters = path.getEnters();
+            for (int i = 0; i < enters.length; i++) {
+                enter(observers, enters[i], actionType);
+            }
         }
 
         // Check to see whether the entering guard has been canceled
-        if (canceled) {
-            canceled = false;
-            return;
+        if (takeCanceled()) {
+            if (metrics != null) {
+                metrics.onCanceled(nextState, Phase.ENTERING);
+            }
+            return TransitionResult.CANCELED;
         }
 
         // change the current state only when both guards have been passed
-        currentState = nextState;
+        if (!commit(previousState, nextState)) {
+            return TransitionResult.STALE;
+        }
+        committed(previousState, targetType, nextState, actionType);
+        return TransitionResult.CHANGED;
+    }
 
+    /**
+     * Get the states a transition exits and enters, when some states are nested.
+     *
+     * @return the path, or null when neither state has a parent.
+     */
+    protected TransitionPath pathOf(State previousState, TargetType targetType, State nextState) {
+        if (definition != null) {
+            return definition.getPath(previousState, targetType, nextState);
+        }
+        if (nextState.getParent() == null && (previousState == null || previousState.getParent() == null)) {
+            return null;
+        }
+        return TransitionPath.between(previousState, nextState, states);
+    }
+
+    private void exit(Observer[] observers, State state, ActionType actionType) {
+        if (state != null && state.getExiting() != null) {
+            //eventDispatcher.dispatchEvent( new StateEvent( currentState.exiting, null, data ));
+            dispatchStateExiting(observers, state);
+            dispatchSubscribers(Phase.EXITING, state, actionType);
+        }
+    }
+
+    private void enter(Observer[] observers, State state, ActionType actionType) {
+        if (state.getEntering() != null) {
+            //eventDispatcher.dispatchEvent( new StateEvent( nextState.entering, null, data ));
+            dispatchStateEntering(observers, state);
+            dispatchSubscribers(Phase.ENTERING, state, actionType);
+        }
+    }
+
+    /**
+     * Reports a transition right after its commit, before the changed notifications.
+     */
+    protected void committed(State previousState, TargetType targetType, State nextState, ActionType actionType) {
+        if (metrics != null && targetType != null) {
+            metrics.onTransition(previousState, targetType, nextState);
+        }
+        CommitListener[] commitListeners = this.commitListeners;
+        for (int i = 0; i < commitListeners.length; i++) {
+            commitListeners[i].onCommit(this, previousState, targetType, nextState, actionType);
+        }
+        if (timingWheel != null) {
+            armTimeout(nextState);
+        }
+    }
+
+    /**
+     * Cancels the timeout of the state just exited and arms the one of the state just entered.
+     * <p/>
+     * Called right after the commit making the state current.</P>
+     */
+    protected void armTimeout(State state) {
+        TimingWheel.Timeout previous = timeout;
+        if (previous != null) {
+            previous.cancel();
+        }
+        if (state.getTimeoutTarget() == null) {
+            timeout = null;
+            return;
+        }
+        final StateTimeout stateTimeout = new StateTimeout(this, state);
+        TimingWheel.Timeout next = timingWheel.schedule(state.getTimeoutMillis(), new Runnable() {
+            @Override
+            public void run() {
+                stateTimeout.fire();
+            }
+        });
+        stateTimeout.timeout = next;
+        timeout = next;
+    }
+
+    /**
+     * Sends the changed notifications for a state that has just become current.
+     */
+    protected void notifyChanged(Observer[] observers, State nextState, ActionType actionType) {
         // Send the notification configured to be sent when this specific state becomes current 
         if (nextState.getChanged() != null) {
             //eventDispatcher.dispatchEvent( new StateEvent( currentState.changed, null, data ));
-            dispatchStateChanged(currentState);
+            dispatchStateChanged(observers, nextState);
+            dispatchSubscribers(Phase.CHANGED, nextState, actionType);
         }
 
         // Notify the app generally that the state changed and what the new state is
         // eventDispatcher.dispatchEvent( new StateEvent( StateEvent.CHANGED, currentState.name));
-        dispatchChanged(currentState, actionType);
+        dispatchChanged(observers, nextState, actionType);
+        dispatchSubscribers(Phase.ANY_CHANGE, nextState, actionType);
+    }
+
+    /**
+     * Makes the next state current once both guards have been passed.
+     *
+     * @return false if the current state is no longer <code>previousState</code>.
+     */
+    protected boolean commit(State previousState, State nextState) {
+        currentState = nextState;
+        return true;
+    }
+
+    /**
+     * Puts the machine directly into a state, as when rebuilding it from a journal.
+     * <p/>
+     * No guard, observer, subscriber, metric or commit listener is involved.
+     * Call <code>notifyCurrentState</code> once done to tell the observers.
+     * Not to be called while actions are being processed.</P>
+     */
+    public void restore(State state) {
+        currentState = state;
+    }
+
+    /**
+     * Applies a recorded action the way <code>restore</code> applies a state:
+     * its target is resolved from the current state, without guards or dispatch.
+     *
+     * @return CHANGED, or NO_TRANSITION if the action leads nowhere from the current state.
+     */
+    public TransitionResult replay(TargetType targetType) {
+        State nextState = resolve(getCurrentState(), targetType);
+        if (nextState == null) {
+            return TransitionResult.NO_TRANSITION;
+        }
+        restore(nextState);
+        return TransitionResult.CHANGED;
+    }
+
+    /**
+     * Sends the changed notifications for the current state, after a restore or a replay.
+     */
+    public void notifyCurrentState(ActionType actionType) {
+        State state = getCurrentState();
+        if (state != null) {
+            notifyChanged(observers, state, actionType);
+        }
+    }
+
+    /**
+     * Sets the sink receiving the measurements of this machine.
+     * <p/>
+     * Per-edge counters, cancellations, guard rejections and the time spent
+     * in every observer callback are reported to it. When null, the default,
+     * nothing is measured.</P>
+     */
+    public void setMetricsSink(MetricsSink metrics) {
+        this.metrics = metrics;
+    }
+
+    public MetricsSink getMetricsSink() {
+        return metrics;
+    }
+
+    /**
+     * Adds a listener told of every committed transition, such as a journal
+     * or a Checkpointer. The listeners are called in the order they were added.
+     */
+    public void addCommitListener(CommitListener commitListener) {
+        if (commitListener == null) {
+            return;
+        }
+        CommitListener[] current = without(commitListeners, commitListener);
+        CommitListener[] next = Arrays.copyOf(current, current.length + 1);
+        next[current.length] = commitListener;
+        commitListeners = next;
+    }
+
+    public void removeCommitListener(CommitListener commitListener) {
+        commitListeners = without(commitListeners, commitListener);
+    }
+
+    /**
+     * Sets the TimingWheel running the timeouts declared with <code>State.Builder.setTimeout</code>.
+     * <p/>
+     * Entering a state with a timeout arms a timer, canceled once the state
+     * is exited. When it expires, the timeout target is fired with a
+     * StateTimeout action on the thread advancing the wheel, so the machine
+     * must be safe to drive from it, such as a MailboxStateMachine or a
+     * ConcurrentStateMachine, unless that thread is the machine's own. The
+     * action gets NO_TRANSITION if, by the time it is processed, its state
+     * was left or entered again.</P>
+     */
+    public void setTimingWheel(TimingWheel timingWheel) {
+        this.timingWheel = timingWheel;
+    }
+
+    public TimingWheel getTimingWheel() {
+        return timingWheel;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
     }
 
     public State getCurrentState() {
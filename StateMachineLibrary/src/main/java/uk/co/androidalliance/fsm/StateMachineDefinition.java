@@ -0,0 +1,440 @@
+/*
+  ADAPTED FOR ANDROID FROM:
+  RobotLegs / PureMVC AS3 Utility - StateMachine
+  Copyright (c) 2008 Neil Manuell, Cliff Hall;
+  Copyright (c) 2013 Android Alliance Ltd
+  Your reuse is governed by the Creative Commons Attribution 3.0 License
+  http://creativecommons.org/licenses/by/3.0/
+ */
+package uk.co.androidalliance.fsm;
+
+import uk.co.androidalliance.fsm.interfaces.StateType;
+import uk.co.androidalliance.fsm.interfaces.TargetType;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable, compiled view of a set of registered {@link State}s.
+ * <p/>
+ * The transitions of every state are resolved straight to their target
+ * <code>State</code> objects when the definition is built. When all the
+ * <code>StateType</code>s and <code>TargetType</code>s are enums, each event
+ * is resolved with a single ordinal-indexed array lookup; otherwise one map
+ * lookup per event is used.</P>
+ * <p/>
+ * States nested in a parent inherit its transitions, and the states exited
+ * and entered by every transition are computed when the definition is
+ * built, see {@link TransitionPath}.</P>
+ * <p/>
+ * Changes made to the source <code>State</code> objects after the definition
+ * has been built are not seen by it.</P>
+ */
+public final class StateMachineDefinition {
+
+    // The initial state, may be null
+    private final State initial;
+
+    // Registered states by type
+    private final Map<StateType, State> states;
+
+    // Enum path: target states indexed by [stateOrdinal * targetCount + targetOrdinal]
+    private final State[] table;
+
+    // Enum path: the enum class of every TargetType in the table
+    private final Class<?> targetClass;
+
+    // Enum path: the number of TargetType constants
+    private final int targetCount;
+
+    // Enum path: registered states by StateType ordinal
+    private final State[] statesByOrdinal;
+
+    // Enum path: the TargetType constants
+    private final TargetType[] targets;
+
+    // Enum path: hash of the constants and of the table, 0 otherwise
+    private final long fingerprint;
+
+    // Map path: target states by source state type, then by target type
+    private final Map<StateType, Map<TargetType, State>> resolved;
+
+    // Guards laid out as the table, or by source state type when not enum
+    // indexed; null when no transition has any
+    private final TransitionGuard[][] guardTable;
+    private final Map<StateType, Map<TargetType, TransitionGuard[]>> resolvedGuards;
+
+    // Exit and enter paths laid out as the table, or by source state type
+    // when not enum indexed; null when no state has a parent
+    private final TransitionPath[] pathTable;
+    private final Map<StateType, Map<TargetType, TransitionPath>> resolvedPaths;
+
+    // Paths entering each state when starting; null when no state has a parent
+    private final Map<StateType, TransitionPath> entryPaths;
+
+    /**
+     * Compiles the given states.
+     *
+     * @param initial the initial state, may be null.
+     * @param states the registered states.
+     */
+    public StateMachineDefinition(State initial, Collection<State> states) {
+        Map<StateType, State> byType = new HashMap<StateType, State>();
+        for (State state : states) {
+            byType.put(state.getStateType(), state);
+        }
+        this.initial = initial;
+        this.states = Collections.unmodifiableMap(byType);
+
+        Class<?> stateClass = enumClassOf(byType.keySet());
+        Class<?> targetClass = stateClass == null ? null : enumClassOf(allTargets(byType.values()));
+
+        // Each state with its ancestors, outermost first, so that its own transitions override theirs
+        Map<State, List<State>> lineages = new HashMap<State, List<State>>();
+        boolean hierarchical = false;
+        for (State state : byType.values()) {
+            List<State> lineage = TransitionPath.ancestry(state, byType);
+            Collections.reverse(lineage);
+            lineages.put(state, lineage);
+            hierarchical |= lineage.size() > 1;
+        }
+
+        if (stateClass != null && targetClass != null) {
+            int stateCount = stateClass.getEnumConstants().length;
+            int targetCount = targetClass.getEnumConstants().length;
+            State[] table = new State[stateCount * targetCount];
+            TransitionGuard[][] guardTable = null;
+            TransitionPath[] pathTable = hierarchical ? new TransitionPath[table.length] : null;
+            for (State state : byType.values()) {
+                int row = ((Enum<?>) state.getStateType()).ordinal() * targetCount;
+                for (State owner : lineages.get(state)) {
+                    for (Map.Entry<TargetType, StateType> transition : owner.transitions.entrySet()) {
+                        int index = row + ((Enum<?>) transition.getKey()).ordinal();
+                        table[index] = byType.get(transition.getValue());
+                        TransitionGuard[] guards = owner.getGuards(transition.getKey());
+                        if (guards != null) {
+                            if (guardTable == null) {
+                                guardTable = new TransitionGuard[table.length][];
+                            }
+                            guardTable[index] = guards.clone();
+                        } else if (guardTable != null) {
+                            guardTable[index] = null;
+                        }
+                    }
+                }
+                if (pathTable != null) {
+                    for (int index = row; index < row + targetCount; index++) {
+                        if (table[index] != null) {
+                            pathTable[index] = TransitionPath.between(state, table[index], byType);
+                        }
+                    }
+                }
+            }
+            State[] statesByOrdinal = new State[stateCount];
+            for (State state : byType.values()) {
+                statesByOrdinal[((Enum<?>) state.getStateType()).ordinal()] = state;
+            }
+            this.statesByOrdinal = statesByOrdinal;
+            this.targets = (TargetType[]) targetClass.getEnumConstants();
+            this.table = table;
+            this.fingerprint = fingerprintOf(stateClass, targetClass, table);
+            this.guardTable = guardTable;
+            this.resolvedGuards = null;
+            this.pathTable = pathTable;
+            this.resolvedPaths = null;
+            this.targetClass = targetClass;
+            this.targetCount = targetCount;
+            this.resolved = null;
+        } else {
+            Map<StateType, Map<TargetType, State>> resolved = new HashMap<StateType, Map<TargetType, State>>();
+            Map<StateType, Map<TargetType, TransitionGuard[]>> resolvedGuards = null;
+            Map<StateType, Map<TargetType, TransitionPath>> resolvedPaths = hierarchical
+                    ? new HashMap<StateType, Map<TargetType, TransitionPath>>() : null;
+            for (State state : byType.values()) {
+                Map<TargetType, State> targets = new HashMap<TargetType, State>();
+                Map<TargetType, TransitionGuard[]> guards = null;
+                for (State owner : lineages.get(state)) {
+                    for (Map.Entry<TargetType, StateType> transition : owner.transitions.entrySet()) {
+                        State target = byType.get(transition.getValue());
+                        if (target != null) {
+                            targets.put(transition.getKey(), target);
+                        } else {
+                            targets.remove(transition.getKey());
+                        }
+                        TransitionGuard[] ownerGuards = owner.getGuards(transition.getKey());
+                        if (ownerGuards != null) {
+                            if (guards == null) {
+                                guards = new HashMap<TargetType, TransitionGuard[]>();
+                            }
+                            guards.put(transition.getKey(), ownerGuards);
+                        } else if (guards != null) {
+                            guards.remove(transition.getKey());
+                        }
+                    }
+                }
+                resolved.put(state.getStateType(), targets);
+                if (guards != null && !guards.isEmpty()) {
+                    if (resolvedGuards == null) {
+                        resolvedGuards = new HashMap<StateType, Map<TargetType, TransitionGuard[]>>();
+                    }
+                    resolvedGuards.put(state.getStateType(), guards);
+                }
+                if (resolvedPaths != null) {
+                    Map<TargetType, TransitionPath> paths = new HashMap<TargetType, TransitionPath>();
+                    for (Map.Entry<TargetType, State> target : targets.entrySet()) {
+                        paths.put(target.getKey(), TransitionPath.between(state, target.getValue(), byType));
+                    }
+                    resolvedPaths.put(state.getStateType(), paths);
+                }
+            }
+            this.statesByOrdinal = null;
+            this.targets = null;
+            this.table = null;
+            this.fingerprint = 0;
+            this.guardTable = null;
+            this.resolvedGuards = resolvedGuards;
+            this.pathTable = null;
+            this.resolvedPaths = resolvedPaths;
+            this.targetClass = null;
+            this.targetCount = 0;
+            this.resolved = resolved;
+        }
+
+        if (hierarchical) {
+            Map<StateType, TransitionPath> entryPaths = new HashMap<StateType, TransitionPath>();
+            for (State state : byType.values()) {
+                entryPaths.put(state.getStateType(), TransitionPath.between(null, state, byType));
+            }
+            this.entryPaths = entryPaths;
+        } else {
+            this.entryPaths = null;
+        }
+    }
+
+    /**
+     * Get the target State for an action fired while in the given state.
+     *
+     * @return the target State, or null if no transition is defined.
+     */
+    public State getTarget(State from, TargetType targetType) {
+        if (from == null || targetType == null) {
+            return null;
+        }
+        if (table != null) {
+            if (!targetClass.isInstance(targetType)) {
+                return null;
+            }
+            return table[((Enum<?>) from.getStateType()).ordinal() * targetCount + ((Enum<?>) targetType).ordinal()];
+        }
+        Map<TargetType, State> targets = resolved.get(from.getStateType());
+        return targets == null ? null : targets.get(targetType);
+    }
+
+    /**
+     * Get the target State by ordinals, only when enum indexed.
+     *
+     * @return the target State, or null if no transition is defined.
+     */
+    public State getTarget(int stateOrdinal, int targetOrdinal) {
+        return table[stateOrdinal * targetCount + targetOrdinal];
+    }
+
+    /**
+     * Get the number of StateType constants, 0 when not enum indexed.
+     */
+    public int getStateCount() {
+        return statesByOrdinal != null ? statesByOrdinal.length : 0;
+    }
+
+    /**
+     * Get the number of TargetType constants, 0 when not enum indexed.
+     */
+    public int getTargetCount() {
+        return targetCount;
+    }
+
+    /**
+     * Get the registered state of a StateType ordinal, only when enum indexed.
+     *
+     * @return the state, or null if none is registered for that ordinal.
+     */
+    public State stateAt(int ordinal) {
+        return statesByOrdinal[ordinal];
+    }
+
+    /**
+     * Get the TargetType constant of an ordinal, only when enum indexed.
+     */
+    public TargetType targetAt(int ordinal) {
+        return targets[ordinal];
+    }
+
+    /**
+     * Get the ordinal of a state's type, only when enum indexed.
+     *
+     * @return the ordinal, or -1 for null.
+     */
+    public int ordinalOf(State state) {
+        return state != null ? ((Enum<?>) state.getStateType()).ordinal() : -1;
+    }
+
+    /**
+     * Get the ordinal of a TargetType, only when enum indexed.
+     *
+     * @return the ordinal, or -1 for null.
+     */
+    public int ordinalOf(TargetType targetType) {
+        return targetType != null ? ((Enum<?>) targetType).ordinal() : -1;
+    }
+
+    /**
+     * Get a hash of the StateType and TargetType constants and of the
+     * transitions between them, only when enum indexed.
+     * <p/>
+     * Ordinals written with one definition, in a snapshot for instance, can
+     * be read with another definition whose fingerprint is the same.</P>
+     *
+     * @return the fingerprint, 0 when not enum indexed.
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Get the guards of the transition for an action fired while in the given state.
+     *
+     * @return the guards, cheapest first, or null if the transition has none.
+     */
+    public TransitionGuard[] getGuards(State from, TargetType targetType) {
+        if (from == null || targetType == null) {
+            return null;
+        }
+        if (guardTable != null) {
+            if (!targetClass.isInstance(targetType)) {
+                return null;
+            }
+            return guardTable[((Enum<?>) from.getStateType()).ordinal() * targetCount + ((Enum<?>) targetType).ordinal()];
+        }
+        if (resolvedGuards == null) {
+            return null;
+        }
+        Map<TargetType, TransitionGuard[]> guards = resolvedGuards.get(from.getStateType());
+        return guards == null ? null : guards.get(targetType);
+    }
+
+    /**
+     * Get the states exited and entered by a transition between nested states.
+     *
+     * @param from the current state, or null when starting.
+     * @param targetType the action fired, or null when starting.
+     * @param to the state the action leads to.
+     * @return the precomputed path, or null when no state has a parent.
+     */
+    public TransitionPath getPath(State from, TargetType targetType, State to) {
+        if (entryPaths == null) {
+            return null;
+        }
+        TransitionPath path = null;
+        if (from == null) {
+            path = entryPaths.get(to.getStateType());
+        } else if (targetType != null && pathTable != null) {
+            if (targetClass.isInstance(targetType)) {
+                path = pathTable[((Enum<?>) from.getStateType()).ordinal() * targetCount + ((Enum<?>) targetType).ordinal()];
+            }
+        } else if (targetType != null) {
+            Map<TargetType, TransitionPath> paths = resolvedPaths.get(from.getStateType());
+            path = paths != null ? paths.get(targetType) : null;
+        }
+        if (path == null || path.getEnters()[path.getEnters().length - 1] != to) {
+            // not a transition of this definition, such as starting again
+            path = TransitionPath.between(from, to, states);
+        }
+        return path;
+    }
+
+    /**
+     * Whether some states are nested in others.
+     */
+    public boolean isHierarchical() {
+        return entryPaths != null;
+    }
+
+    /**
+     * Get a registered state by type.
+     */
+    public State getState(StateType stateType) {
+        return states.get(stateType);
+    }
+
+    /**
+     * Get all the registered states, keyed by type.
+     */
+    public Map<StateType, State> getStates() {
+        return states;
+    }
+
+    /**
+     * Get the initial state
+     */
+    public State getInitial() {
+        return initial;
+    }
+
+    /**
+     * Whether events are resolved through the ordinal-indexed table.
+     */
+    public boolean isEnumIndexed() {
+        return table != null;
+    }
+
+    // 64-bit FNV-1a
+    private static long fingerprintOf(Class<?> stateClass, Class<?> targetClass, State[] table) {
+        long hash = 0xcbf29ce484222325L;
+        for (Object constant : stateClass.getEnumConstants()) {
+            hash = fnv(hash, ((Enum<?>) constant).name());
+        }
+        for (Object constant : targetClass.getEnumConstants()) {
+            hash = fnv(hash, ((Enum<?>) constant).name());
+        }
+        for (State target : table) {
+            hash = (hash ^ (target != null ? ((Enum<?>) target.getStateType()).ordinal() + 1 : 0)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static long fnv(long hash, String name) {
+        for (int i = 0; i < name.length(); i++) {
+            hash = (hash ^ name.charAt(i)) * 0x100000001b3L;
+        }
+        // separates the names
+        return (hash ^ 0xff) * 0x100000001b3L;
+    }
+
+    private static Class<?> enumClassOf(Iterable<?> values) {
+        Class<?> enumClass = null;
+        for (Object value : values) {
+            if (!(value instanceof Enum)) {
+                return null;
+            }
+            Class<?> valueClass = ((Enum<?>) value).getDeclaringClass();
+            if (enumClass == null) {
+                enumClass = valueClass;
+            } else if (enumClass != valueClass) {
+                return null;
+            }
+        }
+        return enumClass;
+    }
+
+    private static Collection<TargetType> allTargets(Collection<State> states) {
+        Collection<TargetType> targets = new ArrayList<TargetType>();
+        for (State state : states) {
+            targets.addAll(state.transitions.keySet());
+        }
+        return targets;
+    }
+}
@@ -0,0 +1,300 @@
+/*
+  ADAPTED FOR ANDROID FROM:
+  RobotLegs / PureMVC AS3 Utility - StateMachine
+  Copyright (c) 2008 Neil Manuell, Cliff Hall;
+  Copyright (c) 2013 Android Alliance Ltd
+  Your reuse is governed by the Creative Commons Attribution 3.0 License
+  http://creativecommons.org/licenses/by/3.0/
+ */
+package uk.co.androidalliance.fsm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import uk.co.androidalliance.fsm.interfaces.ActionType;
+import uk.co.androidalliance.fsm.interfaces.TargetType;
+
+/**
+ * Owns a population of keyed StateMachines, partitioned across single-threaded shards.
+ * <p/>
+ * Every key is routed by hash to exactly one shard, whose thread creates the
+ * key's machine on first use and is the only thread ever touching it, so the
+ * machines need no locking. Each shard drains up to <code>batchSize</code>
+ * queued actions at a time.</P>
+ * <p/>
+ * Alternatively, a runtime created with an Executor gives every machine its
+ * own mailbox drained on that Executor, so that observers blocking in their
+ * callbacks only hold up their own machine. The actions of a machine are
+ * still processed one at a time, in order. On a JVM with virtual threads,
+ * pass <code>Executors.newVirtualThreadPerTaskExecutor()</code> to have
+ * thousands of machines blocked at once without a platform thread each.</P>
+ *
+ * @param <K> the type of the machine keys.
+ */
+public class StateMachineRuntime<K> {
+
+    public interface Factory<K> {
+        /**
+         * Creates and starts the machine for a key, called on the thread processing its actions.
+         */
+        StateMachine create(K key);
+    }
+
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    // sharded mode
+    private final Shard<K>[] shards;
+
+    // executor mode
+    private final ConcurrentMap<K, Lane<K>> lanes;
+    private final Factory<K> factory;
+    private final Executor executor;
+    private final int batchSize;
+
+    /**
+     * Creates a runtime whose machines share the given definition and are
+     * started on first use, with one shard per available processor.
+     *
+     * @param definition the compiled definition, as returned by <code>freeze()</code>.
+     */
+    public StateMachineRuntime(final StateMachineDefinition definition) {
+        this(new Factory<K>() {
+            @Override
+            public StateMachine create(K key) {
+                StateMachine machine = new StateMachine(definition);
+                machine.start();
+                return machine;
+            }
+        }, Runtime.getRuntime().availableProcessors(), DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param factory creates the machine of a key on first use.
+     * @param shardCount the number of shards, and of threads.
+     * @param batchSize the maximum number of actions a shard takes from its queue at a time.
+     */
+    @SuppressWarnings("unchecked")
+    public StateMachineRuntime(Factory<K> factory, int shardCount, int batchSize) {
+        if (factory == null || shardCount < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("shardCount: " + shardCount + ", batchSize: " + batchSize);
+        }
+        shards = newShards(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard<K>(factory, batchSize);
+            shards[i].thread.setName("StateMachineRuntime-shard-" + i);
+            shards[i].thread.start();
+        }
+        this.lanes = null;
+        this.factory = null;
+        this.executor = null;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Creates a runtime giving every machine its own mailbox drained on the executor.
+     *
+     * @param factory creates the machine of a key on first use.
+     * @param executor the Executor running the machines' mailboxes.
+     * @param batchSize the maximum number of actions a machine processes per Executor task.
+     */
+    public StateMachineRuntime(Factory<K> factory, Executor executor, int batchSize) {
+        if (factory == null || executor == null || batchSize < 1) {
+            throw new IllegalArgumentException("executor: " + executor + ", batchSize: " + batchSize);
+        }
+        this.shards = null;
+        this.lanes = new ConcurrentHashMap<K, Lane<K>>();
+        this.factory = factory;
+        this.executor = executor;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Routes an action to the shard, or the mailbox, owning the key's machine.
+     */
+    public void submit(K key, TargetType targetType, ActionType actionType) {
+        Event<K> event = new Event<K>(key, targetType, actionType);
+        if (shards != null) {
+            shards[shardOf(key)].queue.offer(event);
+            return;
+        }
+        Lane<K> lane = lanes.get(key);
+        if (lane == null) {
+            Lane<K> created = new Lane<K>(factory, executor, batchSize);
+            lane = lanes.putIfAbsent(key, created);
+            if (lane == null) {
+                lane = created;
+            }
+        }
+        lane.post(event);
+    }
+
+    /**
+     * Get the index of the shard owning a key, in sharded mode.
+     */
+    public int shardOf(K key) {
+        int h = key.hashCode();
+        // spread the high bits, as HashMap does
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return (h & 0x7fffffff) % shards.length;
+    }
+
+    /**
+     * Get the number of shards, 0 in executor mode.
+     */
+    public int getShardCount() {
+        return shards != null ? shards.length : 0;
+    }
+
+    /**
+     * Get the number of actions a shard has processed so far.
+     */
+    public long getProcessedCount(int shard) {
+        return shards[shard].processed;
+    }
+
+    /**
+     * Get the number of actions waiting in a shard's queue.
+     */
+    public int getPendingCount(int shard) {
+        return shards[shard].queue.size();
+    }
+
+    /**
+     * Stops every shard once the actions already submitted have been processed.
+     * In executor mode the Executor belongs to the caller, who shuts it down.
+     */
+    public void shutdown() {
+        if (shards == null) {
+            return;
+        }
+        for (Shard<K> shard : shards) {
+            shard.queue.offer(new Event<K>(null, null, null));
+        }
+    }
+
+    /**
+     * Waits for every shard to stop after <code>shutdown</code>.
+     *
+     * @return false if the timeout elapsed first.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        if (shards == null) {
+            return true;
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Shard<K> shard : shards) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining > 0) {
+                shard.thread.join(remaining);
+            }
+            if (shard.thread.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class Event<K> {
+        final K key;
+        final TargetType targetType;
+        final ActionType actionType;
+
+        Event(K key, TargetType targetType, ActionType actionType) {
+            this.key = key;
+            this.targetType = targetType;
+            this.actionType = actionType;
+        }
+    }
+
+    private static final class Lane<K> extends Mailbox<Event<K>> {
+
+        final Factory<K> factory;
+
+        // created on the first action, by the mailbox's consumer
+        StateMachine machine;
+
+        Lane(Factory<K> factory, Executor executor, int batchSize) {
+            super(executor, batchSize);
+            this.factory = factory;
+        }
+
+        @Override
+        void process(Event<K> event) {
+            if (machine == null) {
+                machine = factory.create(event.key);
+            }
+            machine.stateAction(event.targetType, event.actionType);
+        }
+    }
+
+    /**
+     * Java cannot create an array of a generic type, so the array is created raw
+     * and cast; it only ever holds the Shard&lt;K&gt; created by the constructor.
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static <K> Shard<K>[] newShards(int count) {
+        return new Shard[count];
+    }
+
+    private static final class Shard<K> implements Runnable {
+
+        final BlockingQueue<Event<K>> queue = new LinkedBlockingQueue<Event<K>>();
+        final Thread thread = new Thread(this);
+        final Map<K, StateMachine> machines = new HashMap<K, StateMachine>();
+        final Factory<K> factory;
+        final int batchSize;
+
+        // written by the shard thread only
+        volatile long processed;
+
+        Shard(Factory<K> factory, int batchSize) {
+            this.factory = factory;
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        public void run() {
+            List<Event<K>> batch = new ArrayList<Event<K>>(batchSize);
+            try {
+                for (;;) {
+                    batch.add(queue.take());
+                    queue.drainTo(batch, batchSize - 1);
+                    for (int i = 0, n = batch.size(); i < n; i++) {
+                        Event<K> event = batch.get(i);
+                        if (event.key == null) {
+                            return;
+                        }
+                        process(event);
+                    }
+                    processed += batch.size();
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void process(Event<K> event) {
+            try {
+                StateMachine machine = machines.get(event.key);
+                if (machine == null) {
+                    machine = factory.create(event.key);
+                    machines.put(event.key, machine);
+                }
+                machine.stateAction(event.targetType, event.actionType);
+            } catch (RuntimeException e) {
+                // keep the shard alive for the other machines
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            }
+        }
+    }
+}
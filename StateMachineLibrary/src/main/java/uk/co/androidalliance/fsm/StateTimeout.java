@@ -0,0 +1,68 @@
+/*
+  ADAPTED FOR ANDROID FROM:
+  RobotLegs / PureMVC AS3 Utility - StateMachine
+  Copyright (c) 2008 Neil Manuell, Cliff Hall;
+  Copyright (c) 2013 Android Alliance Ltd
+  Your reuse is governed by the Creative Commons Attribution 3.0 License
+  http://creativecommons.org/licenses/by/3.0/
+ */
+package uk.co.androidalliance.fsm;
+
+import uk.co.androidalliance.fsm.interfaces.ActionType;
+
+/**
+ * The action sent with the timeout target of a state that stayed current too long.
+ * <p/>
+ * The payload is the state that timed out.</P>
+ */
+public final class StateTimeout implements ActionType {
+
+    private final StateMachine machine;
+
+    private final State state;
+
+    // The timer armed for this timeout, set right after scheduling
+    TimingWheel.Timeout timeout;
+
+    StateTimeout(StateMachine machine, State state) {
+        this.machine = machine;
+        this.state = state;
+    }
+
+    /**
+     * Get the state that timed out.
+     */
+    @Override
+    public Object getPayload() {
+        return state;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Fires the timeout target, from the thread advancing the wheel.
+     * <p/>
+     * The machine may queue the action, so whether it is still due is only
+     * decided once processed, by <code>isDue</code>.</P>
+     */
+    void fire() {
+        machine.stateAction(state.getTimeoutTarget(), this);
+    }
+
+    /**
+     * Whether the timeout still applies: its state is current, and was
+     * neither left nor entered again since the timer was armed.
+     *
+     * @param current the current state of the machine processing the action.
+     */
+    boolean isDue(State current) {
+        return current == state && machine.timeout == timeout;
+    }
+
+    @Override
+    public String toString() {
+        return "StateTimeout: " + state.getStateType() + " after " + state.getTimeoutMillis() + "ms";
+    }
+}
@@ -0,0 +1,293 @@
+/*
+  ADAPTED FOR ANDROID FROM:
+  RobotLegs / PureMVC AS3 Utility - StateMachine
+  Copyright (c) 2008 Neil Manuell, Cliff Hall;
+  Copyright (c) 2013 Android Alliance Ltd
+  Your reuse is governed by the Creative Commons Attribution 3.0 License
+  http://creativecommons.org/licenses/by/3.0/
+ */
+package uk.co.androidalliance.fsm;
+
+/**
+ * A hierarchical timing wheel, scheduling and canceling timers in constant time.
+ * <p/>
+ * Time advances in ticks of <code>tickMillis</code>. The timers due within
+ * 256 ticks sit in the slots of the first wheel, the later ones in four
+ * coarser wheels of 64 slots, each slot of a wheel spanning a whole turn of
+ * the wheel below it. Whenever the first wheel completes a turn, the next
+ * slot of the second wheel is cascaded down, and so on, so every timer is
+ * moved at most four times. Timers further than 2^32 ticks away are
+ * clamped to that delay.</P>
+ * <p/>
+ * The wheel is advanced by <code>tick</code> or <code>advance</code>, or
+ * by its own thread once started. Expired tasks run on the advancing
+ * thread, outside the wheel's lock, so they may schedule and cancel timers.</P>
+ */
+public class TimingWheel {
+
+    /**
+     * A scheduled task, linked into the slot it waits in.
+     */
+    public static final class Timeout {
+
+        final Runnable task;
+
+        final long deadline;
+
+        // The slots of the wheel holding this timer, null once expired or canceled
+        Timeout[] slots;
+        int slot;
+
+        Timeout previous;
+        Timeout next;
+
+        private final TimingWheel wheel;
+
+        Timeout(TimingWheel wheel, Runnable task, long deadline) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancels the timer.
+         *
+         * @return false if it had already expired or been canceled.
+         */
+        public boolean cancel() {
+            synchronized (wheel.lock) {
+                if (slots == null) {
+                    return false;
+                }
+                wheel.unlink(this);
+                wheel.size--;
+                return true;
+            }
+        }
+
+        /**
+         * Whether the timer is still waiting to expire.
+         */
+        public boolean isPending() {
+            synchronized (wheel.lock) {
+                return slots != null;
+            }
+        }
+    }
+
+    private static final int ROOT_BITS = 8;
+    private static final int ROOT_SIZE = 1 << ROOT_BITS;
+    private static final int ROOT_MASK = ROOT_SIZE - 1;
+    private static final int LEVEL_BITS = 6;
+    private static final int LEVEL_SIZE = 1 << LEVEL_BITS;
+    private static final int LEVEL_MASK = LEVEL_SIZE - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_DELAY = (1L << (ROOT_BITS + LEVELS * LEVEL_BITS)) - 1;
+
+    private final long tickMillis;
+
+    private final long startNanos;
+
+    // Guards the wheels, the tick and the size
+    private final Object lock = new Object();
+
+    private final Timeout[] root = new Timeout[ROOT_SIZE];
+
+    private final Timeout[][] levels = new Timeout[LEVELS][LEVEL_SIZE];
+
+    // The next tick to process
+    private long tick;
+
+    private int size;
+
+    private volatile Thread ticker;
+
+    /**
+     * @param tickMillis the resolution of the wheel.
+     */
+    public TimingWheel(long tickMillis) {
+        if (tickMillis < 1) {
+            throw new IllegalArgumentException("tickMillis: " + tickMillis);
+        }
+        this.tickMillis = tickMillis;
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Schedules a task to run once the delay has elapsed, rounded up to a whole tick.
+     */
+    public Timeout schedule(long delayMillis, Runnable task) {
+        long ticks = Math.min(MAX_DELAY, Math.max(0, (delayMillis + tickMillis - 1) / tickMillis));
+        synchronized (lock) {
+            Timeout timeout = new Timeout(this, task, tick + ticks);
+            link(timeout);
+            size++;
+            return timeout;
+        }
+    }
+
+    /**
+     * Processes the next tick, running the tasks due.
+     *
+     * @return the number of tasks run.
+     */
+    public int tick() {
+        Timeout expired;
+        synchronized (lock) {
+            int index = (int) (tick & ROOT_MASK);
+            if (index == 0) {
+                // cascade the slots of the coarser wheels due within the next turn
+                for (int level = 0; level < LEVELS; level++) {
+                    int slot = (int) ((tick >>> (ROOT_BITS + level * LEVEL_BITS)) & LEVEL_MASK);
+                    cascade(levels[level], slot);
+                    if (slot != 0) {
+                        break;
+                    }
+                }
+            }
+            tick++;
+            expired = root[index];
+            root[index] = null;
+            for (Timeout timeout = expired; timeout != null; timeout = timeout.next) {
+                timeout.slots = null;
+                size--;
+            }
+        }
+        int run = 0;
+        for (Timeout timeout = expired; timeout != null; ) {
+            // read before running, the task may not touch it but keeps the list intact
+            Timeout next = timeout.next;
+            try {
+                timeout.task.run();
+            } catch (RuntimeException e) {
+                // keep expiring the other timers
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            }
+            run++;
+            timeout = next;
+        }
+        return run;
+    }
+
+    /**
+     * Processes every tick elapsed since the wheel was created.
+     *
+     * @return the number of tasks run.
+     */
+    public int advance() {
+        long now = (System.nanoTime() - startNanos) / 1000000L / tickMillis;
+        int run = 0;
+        while (getTick() <= now) {
+            run += tick();
+        }
+        return run;
+    }
+
+    /**
+     * Starts a daemon thread advancing the wheel every tick.
+     */
+    public synchronized void start() {
+        if (ticker != null) {
+            return;
+        }
+        ticker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (ticker == Thread.currentThread()) {
+                    advance();
+                    try {
+                        Thread.sleep(tickMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }, "TimingWheel");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    /**
+     * Stops the thread started by <code>start</code>.
+     */
+    public synchronized void stop() {
+        Thread thread = ticker;
+        ticker = null;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Get the next tick to process.
+     */
+    public long getTick() {
+        synchronized (lock) {
+            return tick;
+        }
+    }
+
+    /**
+     * Get the number of pending timers.
+     */
+    public int size() {
+        synchronized (lock) {
+            return size;
+        }
+    }
+
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    private void cascade(Timeout[] slots, int slot) {
+        Timeout timeout = slots[slot];
+        slots[slot] = null;
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            link(timeout);
+            timeout = next;
+        }
+    }
+
+    private void link(Timeout timeout) {
+        long delay = timeout.deadline - tick;
+        Timeout[] slots;
+        int slot;
+        if (delay < ROOT_SIZE) {
+            // already due timers go in the slot processed next
+            slots = root;
+            slot = (int) ((delay < 0 ? tick : timeout.deadline) & ROOT_MASK);
+        } else {
+            int level = 0;
+            while (level < LEVELS - 1 && delay >= 1L << (ROOT_BITS + (level + 1) * LEVEL_BITS)) {
+                level++;
+            }
+            slots = levels[level];
+            slot = (int) ((timeout.deadline >>> (ROOT_BITS + level * LEVEL_BITS)) & LEVEL_MASK);
+        }
+        timeout.slots = slots;
+        timeout.slot = slot;
+        timeout.previous = null;
+        timeout.next = slots[slot];
+        if (timeout.next != null) {
+            timeout.next.previous = timeout;
+        }
+        slots[slot] = timeout;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.previous != null) {
+            timeout.previous.next = timeout.next;
+        } else {
+            timeout.slots[timeout.slot] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.previous = timeout.previous;
+        }
+        timeout.slots = null;
+        timeout.previous = null;
+        timeout.next = null;
+    }
+}
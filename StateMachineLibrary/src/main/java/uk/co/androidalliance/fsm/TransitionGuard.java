@@ -0,0 +1,32 @@
+/*
+  ADAPTED FOR ANDROID FROM:
+  RobotLegs / PureMVC AS3 Utility - StateMachine
+  Copyright (c) 2008 Neil Manuell, Cliff Hall;
+  Copyright (c) 2013 Android Alliance Ltd
+  Your reuse is governed by the Creative Commons Attribution 3.0 License
+  http://creativecommons.org/licenses/by/3.0/
+ */
+package uk.co.androidalliance.fsm;
+
+import uk.co.androidalliance.fsm.interfaces.ActionType;
+import uk.co.androidalliance.fsm.interfaces.TargetType;
+
+/**
+ * A predicate attached to a transition, see <code>State.defineTrans</code>.
+ * <p/>
+ * Guards are evaluated before any observer is notified; the first guard
+ * refusing the transition ends it with {@link TransitionResult#REJECTED}.</P>
+ */
+public interface TransitionGuard {
+
+    /**
+     * @return whether the transition may go ahead.
+     */
+    boolean accept(State from, TargetType targetType, ActionType actionType);
+
+    /**
+     * Get the relative cost of <code>accept</code>; the guards of a
+     * transition are evaluated cheapest first.
+     */
+    int getCost();
+}
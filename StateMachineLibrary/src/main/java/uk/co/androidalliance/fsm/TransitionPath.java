@@ -0,0 +1,120 @@
+/*
+  ADAPTED FOR ANDROID FROM:
+  RobotLegs / PureMVC AS3 Utility - StateMachine
+  Copyright (c) 2008 Neil Manuell, Cliff Hall;
+  Copyright (c) 2013 Android Alliance Ltd
+  Your reuse is governed by the Creative Commons Attribution 3.0 License
+  http://creativecommons.org/licenses/by/3.0/
+ */
+package uk.co.androidalliance.fsm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import uk.co.androidalliance.fsm.interfaces.StateType;
+
+/**
+ * The states exited and entered by a transition between nested states.
+ * <p/>
+ * The states from the source up to, but excluding, the lowest state
+ * enclosing both the source and the target are exited, innermost first.
+ * Then the states below it down to the target are entered, outermost
+ * first. A transition to the same state exits and enters it again.</P>
+ */
+public final class TransitionPath {
+
+    private static final State[] NONE = new State[0];
+
+    private final State[] exits;
+
+    private final State[] enters;
+
+    private TransitionPath(State[] exits, State[] enters) {
+        this.exits = exits;
+        this.enters = enters;
+    }
+
+    /**
+     * Get the states exited, innermost first.
+     */
+    public State[] getExits() {
+        return exits;
+    }
+
+    /**
+     * Get the states entered, outermost first, ending with the target.
+     */
+    public State[] getEnters() {
+        return enters;
+    }
+
+    /**
+     * Computes the path between two states by walking their parents.
+     *
+     * @param from the source state, or null when starting.
+     * @param to the target state.
+     * @param states the registered states, to look the parents up.
+     * @throws IllegalArgumentException if a parent is not registered or the parents form a cycle.
+     */
+    public static TransitionPath between(State from, State to, Map<StateType, State> states) {
+        List<State> toChain = ancestry(to, states);
+        if (from == null) {
+            return new TransitionPath(NONE, reverse(toChain, toChain.size()));
+        }
+        List<State> fromChain = ancestry(from, states);
+        // the lowest proper ancestor of both
+        int fromDepth = fromChain.size();
+        int toDepth = toChain.size();
+        for (int i = 1; i < fromChain.size(); i++) {
+            int j = toChain.indexOf(fromChain.get(i));
+            if (j > 0) {
+                fromDepth = i;
+                toDepth = j;
+                break;
+            }
+        }
+        State[] exits = fromChain.subList(0, fromDepth).toArray(new State[fromDepth]);
+        return new TransitionPath(exits, reverse(toChain, toDepth));
+    }
+
+    /**
+     * Get a state followed by its ancestors, innermost first.
+     */
+    static List<State> ancestry(State state, Map<StateType, State> states) {
+        List<State> chain = new ArrayList<State>(4);
+        chain.add(state);
+        for (StateType parent = state.getParent(); parent != null; parent = chain.get(chain.size() - 1).getParent()) {
+            State enclosing = states.get(parent);
+            if (enclosing == null) {
+                throw new IllegalArgumentException("Unregistered parent " + parent + " of " + state.getStateType());
+            }
+            if (chain.contains(enclosing)) {
+                throw new IllegalArgumentException("Cycle in the parents of " + state.getStateType());
+            }
+            chain.add(enclosing);
+        }
+        return chain;
+    }
+
+    private static State[] reverse(List<State> chain, int length) {
+        State[] reversed = new State[length];
+        for (int i = 0; i < length; i++) {
+            reversed[i] = chain.get(length - 1 - i);
+        }
+        return reversed;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("TransitionPath: exits");
+        for (State state : exits) {
+            builder.append(' ').append(state.getStateType());
+        }
+        builder.append(", enters");
+        for (State state : enters) {
+            builder.append(' ').append(state.getStateType());
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,33 @@
+/*
+  ADAPTED FOR ANDROID FROM:
+  RobotLegs / PureMVC AS3 Utility - StateMachine
+  Copyright (c) 2008 Neil Manuell, Cliff Hall;
+  Copyright (c) 2013 Android Alliance Ltd
+  Your reuse is governed by the Creative Commons Attribution 3.0 License
+  http://creativecommons.org/licenses/by/3.0/
+ */
+package uk.co.androidalliance.fsm;
+
+/**
+ * The outcome of a <code>stateAction</code>.
+ */
+public enum TransitionResult {
+
+    // The current state changed and all observers were notified
+    CHANGED,
+
+    // No transition is defined for the action in the current state
+    NO_TRANSITION,
+
+    // A TransitionGuard refused the transition, no observer was notified
+    REJECTED,
+
+    // An exiting or entering observer canceled the transition
+    CANCELED,
+
+    // Another thread changed the current state while the guards were running
+    STALE,
+
+    // The action was queued and will be processed later
+    QUEUED
+}
@@ -0,0 +1,54 @@
+/*
+  ADAPTED FOR ANDROID FROM:
+  RobotLegs / PureMVC AS3 Utility - StateMachine
+  Copyright (c) 2008 Neil Manuell, Cliff Hall;
+  Copyright (c) 2013 Android Alliance Ltd
+  Your reuse is governed by the Creative Commons Attribution 3.0 License
+  http://creativecommons.org/licenses/by/3.0/
+ */
+package uk.co.androidalliance.fsm.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import uk.co.androidalliance.fsm.interfaces.StateType;
+import uk.co.androidalliance.fsm.interfaces.TargetType;
+
+/**
+ * Describes a machine fixed at compile time, from which the annotation
+ * processor of StateMachineCompiler generates a specialized class.
+ * <p/>
+ * The annotated class or interface declares the handlers, methods
+ * annotated with {@link OnEntering}, {@link OnExiting} and
+ * {@link OnChanged}. The generated class, named <code>name</code> in the
+ * same package, takes an instance of it and resolves every action with a
+ * switch over the enum constants, calling the handlers directly.</P>
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface CompiledStateMachine {
+
+    /**
+     * The simple name of the generated class.
+     */
+    String name();
+
+    /**
+     * The enum of the states.
+     */
+    Class<? extends StateType> states();
+
+    /**
+     * The enum of the actions.
+     */
+    Class<? extends TargetType> targets();
+
+    /**
+     * The name of the initial state's constant.
+     */
+    String initial();
+
+    Transition[] transitions();
+}
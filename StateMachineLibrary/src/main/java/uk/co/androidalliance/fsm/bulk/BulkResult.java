@@ -0,0 +1,71 @@
+/*
+  ADAPTED FOR ANDROID FROM:
+  RobotLegs / PureMVC AS3 Utility - StateMachine
+  Copyright (c) 2008 Neil Manuell, Cliff Hall;
+  Copyright (c) 2013 Android Alliance Ltd
+  Your reuse is governed by the Creative Commons Attribution 3.0 License
+  http://creativecommons.org/licenses/by/3.0/
+ */
+package uk.co.androidalliance.fsm.bulk;
+
+/**
+ * The counts gathered by a BulkSimulator run.
+ */
+public final class BulkResult {
+
+    private final int targetCount;
+
+    // entities by state ordinal at the end of the run
+    private final long[] stateCounts;
+
+    // transitions taken, indexed by [stateOrdinal * targetCount + targetOrdinal]
+    private final long[] edgeCounts;
+
+    // events of entities not started or without a transition
+    private final long ignored;
+
+    BulkResult(int targetCount, long[] stateCounts, long[] edgeCounts, long ignored) {
+        this.targetCount = targetCount;
+        this.stateCounts = stateCounts;
+        this.edgeCounts = edgeCounts;
+        this.ignored = ignored;
+    }
+
+    /**
+     * Get the number of entities in a state at the end of the run.
+     */
+    public long getStateCount(int stateOrdinal) {
+        return stateCounts[stateOrdinal];
+    }
+
+    /**
+     * Get the number of times a transition was taken.
+     */
+    public long getEdgeCount(int stateOrdinal, int targetOrdinal) {
+        return edgeCounts[stateOrdinal * targetCount + targetOrdinal];
+    }
+
+    /**
+     * Get the number of events which changed the state of their entity.
+     */
+    public long getApplied() {
+        long applied = 0;
+        for (long count : edgeCounts) {
+            applied += count;
+        }
+        return applied;
+    }
+
+    /**
+     * Get the number of events of entities out of the states or not started,
+     * with an unknown target, or without a transition from their state.
+     */
+    public long getIgnored() {
+        return ignored;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkResult: applied " + getApplied() + ", ignored " + ignored;
+    }
+}
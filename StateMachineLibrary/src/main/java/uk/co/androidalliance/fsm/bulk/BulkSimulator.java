@@ -0,0 +1,279 @@
+/*
+  ADAPTED FOR ANDROID FROM:
+  RobotLegs / PureMVC AS3 Utility - StateMachine
+  Copyright (c) 2008 Neil Manuell, Cliff Hall;
+  Copyright (c) 2013 Android Alliance Ltd
+  Your reuse is governed by the Creative Commons Attribution 3.0 License
+  http://creativecommons.org/licenses/by/3.0/
+ */
+package uk.co.androidalliance.fsm.bulk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import uk.co.androidalliance.fsm.State;
+import uk.co.androidalliance.fsm.StateMachineDefinition;
+
+/**
+ * Runs one definition over a large population of entities without any StateMachine object.
+ * <p/>
+ * The state of every entity is the ordinal of its StateType in an
+ * <code>int[]</code>, -1 when not started, and the events are two parallel
+ * columns, the entity of each event and the ordinal of its TargetType.
+ * Each event is applied with one lookup in a copy of the definition's
+ * transition table holding ordinals. Guards, observers and payloads are
+ * not involved.</P>
+ * <p/>
+ * A parallel run splits the entities into ranges. The events are first
+ * scattered by range into scratch columns, in parallel chunks, keeping
+ * their order within each range, then every range is applied on its own,
+ * so the events of an entity are still applied in order.</P>
+ */
+public class BulkSimulator {
+
+    private final int stateCount;
+
+    private final int targetCount;
+
+    private final int initial;
+
+    // target state ordinals indexed by [stateOrdinal * targetCount + targetOrdinal], -1 for none
+    private final int[] table;
+
+    /**
+     * @param definition the compiled definition, must be enum indexed.
+     */
+    public BulkSimulator(StateMachineDefinition definition) {
+        if (!definition.isEnumIndexed()) {
+            throw new IllegalArgumentException("Definition not enum indexed");
+        }
+        this.stateCount = definition.getStateCount();
+        this.targetCount = definition.getTargetCount();
+        this.initial = definition.ordinalOf(definition.getInitial());
+        this.table = new int[stateCount * targetCount];
+        for (int s = 0; s < stateCount; s++) {
+            for (int t = 0; t < targetCount; t++) {
+                State target = definition.getTarget(s, t);
+                table[s * targetCount + t] = definition.ordinalOf(target);
+            }
+        }
+    }
+
+    /**
+     * Creates the states of a population, every entity in the initial state.
+     */
+    public int[] newStates(int entities) {
+        int[] states = new int[entities];
+        Arrays.fill(states, initial);
+        return states;
+    }
+
+    /**
+     * Applies the events on the calling thread.
+     *
+     * @param states the state ordinal of every entity, updated in place.
+     * @param entities the entity of each event.
+     * @param targets the TargetType ordinal of each event.
+     * @param eventCount the number of events to apply, from the start of the columns.
+     */
+    public BulkResult run(int[] states, int[] entities, int[] targets, int eventCount) {
+        long[] edges = new long[table.length];
+        long ignored = 0;
+        int from = 0;
+        for (int i = 0; i <= eventCount; i++) {
+            // events of entities out of the states are ignored
+            if (i == eventCount || entities[i] < 0 || entities[i] >= states.length) {
+                ignored += apply(states, entities, targets, from, i, edges);
+                if (i < eventCount) {
+                    ignored++;
+                }
+                from = i + 1;
+            }
+        }
+        return new BulkResult(targetCount, countStates(states, 0, states.length), edges, ignored);
+    }
+
+    /**
+     * Applies the events on the executor, splitting the entities into <code>partitions</code> ranges.
+     */
+    public BulkResult run(final int[] states, final int[] entities, final int[] targets, final int eventCount,
+                          ExecutorService executor, final int partitions) throws InterruptedException {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("partitions: " + partitions);
+        }
+        final int rangeSize = Math.max(1, (states.length + partitions - 1) / partitions);
+        final int[][] counts = new int[partitions][];
+        final int[] sortedEntities = new int[eventCount];
+        final int[] sortedTargets = new int[eventCount];
+
+        // count the events of every range in every chunk of events
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(partitions);
+        for (int c = 0; c < partitions; c++) {
+            final int chunk = c;
+            tasks.add(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    int[] count = new int[partitions + 1];
+                    for (int i = chunkStart(chunk, eventCount, partitions), end = chunkStart(chunk + 1, eventCount, partitions); i < end; i++) {
+                        count[rangeOf(entities[i], states.length, rangeSize, partitions)]++;
+                    }
+                    counts[chunk] = count;
+                    return null;
+                }
+            });
+        }
+        invokeAll(executor, tasks);
+
+        // where each chunk writes the events of each range, ranges one after the other
+        // and the chunks of a range in event order; the events out of any range go last
+        final int[][] offsets = new int[partitions][partitions + 1];
+        final int[] rangeStarts = new int[partitions + 2];
+        int position = 0;
+        for (int r = 0; r <= partitions; r++) {
+            rangeStarts[r] = position;
+            for (int c = 0; c < partitions; c++) {
+                offsets[c][r] = position;
+                position += counts[c][r];
+            }
+        }
+        rangeStarts[partitions + 1] = position;
+
+        // scatter the events into their ranges
+        tasks.clear();
+        for (int c = 0; c < partitions; c++) {
+            final int chunk = c;
+            tasks.add(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    int[] offset = offsets[chunk];
+                    for (int i = chunkStart(chunk, eventCount, partitions), end = chunkStart(chunk + 1, eventCount, partitions); i < end; i++) {
+                        int at = offset[rangeOf(entities[i], states.length, rangeSize, partitions)]++;
+                        sortedEntities[at] = entities[i];
+                        sortedTargets[at] = targets[i];
+                    }
+                    return null;
+                }
+            });
+        }
+        invokeAll(executor, tasks);
+
+        // apply every range on its own
+        final Range[] ranges = new Range[partitions];
+        tasks.clear();
+        for (int r = 0; r < partitions; r++) {
+            final int range = r;
+            tasks.add(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    int low = Math.min(states.length, range * rangeSize);
+                    int high = Math.min(states.length, low + rangeSize);
+                    Range result = new Range(table.length);
+                    result.ignored = apply(states, sortedEntities, sortedTargets, rangeStarts[range], rangeStarts[range + 1], result.edges);
+                    result.states = countStates(states, low, high);
+                    ranges[range] = result;
+                    return null;
+                }
+            });
+        }
+        invokeAll(executor, tasks);
+
+        long[] stateCounts = new long[stateCount];
+        long[] edges = new long[table.length];
+        // the events out of any range
+        long ignored = rangeStarts[partitions + 1] - rangeStarts[partitions];
+        for (Range range : ranges) {
+            for (int i = 0; i < edges.length; i++) {
+                edges[i] += range.edges[i];
+            }
+            for (int i = 0; i < stateCount; i++) {
+                stateCounts[i] += range.states[i];
+            }
+            ignored += range.ignored;
+        }
+        return new BulkResult(targetCount, stateCounts, edges, ignored);
+    }
+
+    /**
+     * Applies the events in [from, to), whose entities are all within the states,
+     * ignoring those whose target is not an ordinal of the definition.
+     *
+     * @return the number of events ignored.
+     */
+    private long apply(int[] states, int[] entities, int[] targets, int from, int to, long[] edges) {
+        int[] table = this.table;
+        int targetCount = this.targetCount;
+        long ignored = 0;
+        for (int i = from; i < to; i++) {
+            int entity = entities[i];
+            int state = states[entity];
+            int target = targets[i];
+            if (state < 0 || target < 0 || target >= targetCount) {
+                ignored++;
+                continue;
+            }
+            int index = state * targetCount + target;
+            int next = table[index];
+            if (next < 0) {
+                ignored++;
+                continue;
+            }
+            states[entity] = next;
+            edges[index]++;
+        }
+        return ignored;
+    }
+
+    private static int chunkStart(int chunk, int eventCount, int chunks) {
+        return (int) ((long) eventCount * chunk / chunks);
+    }
+
+    /**
+     * @return the range of an entity, or <code>partitions</code> when out of the states.
+     */
+    private static int rangeOf(int entity, int entityCount, int rangeSize, int partitions) {
+        return entity >= 0 && entity < entityCount ? entity / rangeSize : partitions;
+    }
+
+    private static void invokeAll(ExecutorService executor, List<Callable<Object>> tasks) throws InterruptedException {
+        List<Future<Object>> done = executor.invokeAll(tasks);
+        try {
+            for (int i = 0; i < done.size(); i++) {
+                done.get(i).get();
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private long[] countStates(int[] states, int low, int high) {
+        long[] counts = new long[stateCount];
+        for (int i = low; i < high; i++) {
+            if (states[i] >= 0) {
+                counts[states[i]]++;
+            }
+        }
+        return counts;
+    }
+
+    private static final class Range {
+        final long[] edges;
+        long[] states;
+        long ignored;
+
+        Range(int edgeCount) {
+            edges = new long[edgeCount];
+        }
+    }
+}
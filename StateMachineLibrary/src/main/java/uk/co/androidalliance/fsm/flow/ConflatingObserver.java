@@ -0,0 +1,253 @@
+/*
+  ADAPTED FOR ANDROID FROM:
+  RobotLegs / PureMVC AS3 Utility - StateMachine
+  Copyright (c) 2008 Neil Manuell, Cliff Hall;
+  Copyright (c) 2013 Android Alliance Ltd
+  Your reuse is governed by the Creative Commons Attribution 3.0 License
+  http://creativecommons.org/licenses/by/3.0/
+ */
+package uk.co.androidalliance.fsm.flow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import uk.co.androidalliance.fsm.PrimitiveAction;
+import uk.co.androidalliance.fsm.State;
+import uk.co.androidalliance.fsm.StateMachine;
+import uk.co.androidalliance.fsm.interfaces.ActionType;
+import uk.co.androidalliance.fsm.interfaces.StateType;
+
+/**
+ * Delivers the latest state of each attached StateMachine at most once per frame.
+ * <p/>
+ * A burst of transitions only schedules one frame: by the time it comes,
+ * each machine that changed has a single pending StateChange, its latest,
+ * and all of them are handed to the Listener in one call, on the thread of
+ * the FrameClock. Machines appear in the order they first changed since the
+ * previous frame.</P>
+ * <p/>
+ * StateListeners subscribed to a StateType are then called for every
+ * change of the frame into a state of that type, as the ANY_CHANGE
+ * subscriptions of a StateMachine would be, but once per frame. They only
+ * get the action, so the payload of a PrimitiveAction is left to the
+ * Listener, in <code>StateChange.getPrimitivePayload</code>.</P>
+ */
+public class ConflatingObserver {
+
+    public interface Listener {
+        /**
+         * @param changes the latest change of every machine that changed since the previous frame.
+         */
+        void onFrame(List<StateChange> changes);
+    }
+
+    private final FrameClock frameClock;
+
+    private final Listener listener;
+
+    // Copy-on-write, replaced by every subscribe and unsubscribe
+    private volatile Map<StateType, StateMachine.StateListener[]> subscriptions =
+            new HashMap<StateType, StateMachine.StateListener[]>();
+
+    private final ConcurrentMap<StateMachine, Tap> taps = new ConcurrentHashMap<StateMachine, Tap>();
+
+    private final Runnable frame = new Runnable() {
+        @Override
+        public void run() {
+            deliver();
+        }
+    };
+
+    private final Object lock = new Object();
+
+    // Guarded by lock, swapped with spare at every frame
+    private LinkedHashMap<StateMachine, StateChange> pending = new LinkedHashMap<StateMachine, StateChange>();
+
+    // Only touched by deliver
+    private LinkedHashMap<StateMachine, StateChange> spare = new LinkedHashMap<StateMachine, StateChange>();
+
+    // Whether a frame has been posted and not yet run, guarded by lock
+    private boolean posted;
+
+    private long received;
+
+    private long delivered;
+
+    /**
+     * ConflatingObserver Constructor, delivering to the subscribed StateListeners only.
+     *
+     * @param frameClock paces the deliveries.
+     */
+    public ConflatingObserver(FrameClock frameClock) {
+        this(frameClock, null);
+    }
+
+    /**
+     * @param frameClock paces the deliveries.
+     * @param listener receives the latest changes, on the thread of the FrameClock, may be null.
+     */
+    public ConflatingObserver(FrameClock frameClock, Listener listener) {
+        if (frameClock == null) {
+            throw new IllegalArgumentException("frameClock: " + frameClock);
+        }
+        this.frameClock = frameClock;
+        this.listener = listener;
+    }
+
+    /**
+     * Calls the listener, once per frame, with the latest change of every machine into a state of the given type.
+     */
+    public synchronized void subscribe(StateType stateType, StateMachine.StateListener listener) {
+        if (stateType == null || listener == null) {
+            return;
+        }
+        Map<StateType, StateMachine.StateListener[]> next = new HashMap<StateType, StateMachine.StateListener[]>(subscriptions);
+        StateMachine.StateListener[] current = next.get(stateType);
+        StateMachine.StateListener[] added = current == null
+                ? new StateMachine.StateListener[1] : Arrays.copyOf(current, current.length + 1);
+        added[added.length - 1] = listener;
+        next.put(stateType, added);
+        subscriptions = next;
+    }
+
+    public synchronized void unsubscribe(StateType stateType, StateMachine.StateListener listener) {
+        StateMachine.StateListener[] current = subscriptions.get(stateType);
+        if (current == null) {
+            return;
+        }
+        List<StateMachine.StateListener> kept = new ArrayList<StateMachine.StateListener>(Arrays.asList(current));
+        kept.remove(listener);
+        Map<StateType, StateMachine.StateListener[]> next = new HashMap<StateType, StateMachine.StateListener[]>(subscriptions);
+        if (kept.isEmpty()) {
+            next.remove(stateType);
+        } else {
+            next.put(stateType, kept.toArray(new StateMachine.StateListener[kept.size()]));
+        }
+        subscriptions = next;
+    }
+
+    /**
+     * Conflates the changes of a machine, adding an observer to it.
+     */
+    public void attach(StateMachine machine) {
+        Tap tap = new Tap(machine);
+        if (taps.putIfAbsent(machine, tap) == null) {
+            machine.addObserver(tap);
+        }
+    }
+
+    /**
+     * Stops conflating the changes of a machine, a change already pending is still delivered.
+     */
+    public void detach(StateMachine machine) {
+        Tap tap = taps.remove(machine);
+        if (tap != null) {
+            machine.removeObserver(tap);
+        }
+    }
+
+    /**
+     * Get the number of changes received from the machines.
+     */
+    public long getReceivedCount() {
+        synchronized (lock) {
+            return received;
+        }
+    }
+
+    /**
+     * Get the number of changes handed to the listener, the rest having been superseded.
+     */
+    public long getDeliveredCount() {
+        synchronized (lock) {
+            return delivered;
+        }
+    }
+
+    private void onChanged(StateChange change) {
+        boolean post;
+        synchronized (lock) {
+            received++;
+            pending.put(change.getMachine(), change);
+            post = !posted;
+            posted = true;
+        }
+        if (post) {
+            frameClock.postFrame(frame);
+        }
+    }
+
+    private void deliver() {
+        LinkedHashMap<StateMachine, StateChange> changes;
+        synchronized (lock) {
+            changes = pending;
+            pending = spare;
+            posted = false;
+            delivered += changes.size();
+        }
+        if (changes.isEmpty()) {
+            spare = changes;
+            return;
+        }
+        List<StateChange> batch = Collections.unmodifiableList(new ArrayList<StateChange>(changes.values()));
+        changes.clear();
+        spare = changes;
+        if (listener != null) {
+            listener.onFrame(batch);
+        }
+        Map<StateType, StateMachine.StateListener[]> subscriptions = this.subscriptions;
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+        for (int i = 0, n = batch.size(); i < n; i++) {
+            StateChange change = batch.get(i);
+            StateMachine.StateListener[] listeners = subscriptions.get(change.getState().getStateType());
+            if (listeners != null) {
+                for (int j = 0; j < listeners.length; j++) {
+                    listeners[j].onState(change.getState(), change.getActionType());
+                }
+            }
+        }
+    }
+
+    /**
+     * The observer added to an attached machine.
+     */
+    private final class Tap implements StateMachine.PrimitiveObserver {
+
+        private final StateMachine machine;
+
+        Tap(StateMachine machine) {
+            this.machine = machine;
+        }
+
+        @Override
+        public void onStateEntering(State state) {
+        }
+
+        @Override
+        public void onStateExiting(State state) {
+        }
+
+        @Override
+        public void onStateChanged(State state) {
+        }
+
+        @Override
+        public void onChanged(State state, ActionType actionType) {
+            ConflatingObserver.this.onChanged(new StateChange(machine, state, actionType));
+        }
+
+        @Override
+        public void onChanged(State state, long payload) {
+            ConflatingObserver.this.onChanged(new StateChange(machine, state, PrimitiveAction.INSTANCE, payload));
+        }
+    }
+}
@@ -0,0 +1,23 @@
+/*
+  ADAPTED FOR ANDROID FROM:
+  RobotLegs / PureMVC AS3 Utility - StateMachine
+  Copyright (c) 2008 Neil Manuell, Cliff Hall;
+  Copyright (c) 2013 Android Alliance Ltd
+  Your reuse is governed by the Creative Commons Attribution 3.0 License
+  http://creativecommons.org/licenses/by/3.0/
+ */
+package uk.co.androidalliance.fsm.flow;
+
+/**
+ * Paces a ConflatingObserver, one delivery per frame.
+ * <p/>
+ * On Android, post to <code>Choreographer.postFrameCallback</code>; on a
+ * plain JVM or in tests, use a ManualFrameClock.</P>
+ */
+public interface FrameClock {
+
+    /**
+     * Runs the callback once, at the next frame.
+     */
+    void postFrame(Runnable callback);
+}
@@ -0,0 +1,60 @@
+/*
+  ADAPTED FOR ANDROID FROM:
+  RobotLegs / PureMVC AS3 Utility - StateMachine
+  Copyright (c) 2008 Neil Manuell, Cliff Hall;
+  Copyright (c) 2013 Android Alliance Ltd
+  Your reuse is governed by the Creative Commons Attribution 3.0 License
+  http://creativecommons.org/licenses/by/3.0/
+ */
+package uk.co.androidalliance.fsm.flow;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A FrameClock whose frames are produced by calling <code>frame</code>.
+ */
+public class ManualFrameClock implements FrameClock {
+
+    private List<Runnable> callbacks = new ArrayList<Runnable>();
+
+    private long frames;
+
+    @Override
+    public synchronized void postFrame(Runnable callback) {
+        callbacks.add(callback);
+    }
+
+    /**
+     * Runs the callbacks posted before this frame, on the calling thread.
+     *
+     * @return the number of callbacks run.
+     */
+    public int frame() {
+        List<Runnable> due;
+        synchronized (this) {
+            frames++;
+            due = callbacks;
+            // callbacks posted while running wait for the next frame
+            callbacks = new ArrayList<Runnable>();
+        }
+        for (int i = 0; i < due.size(); i++) {
+            due.get(i).run();
+        }
+        return due.size();
+    }
+
+    /**
+     * Get the number of frames produced.
+     */
+    public synchronized long getFrameCount() {
+        return frames;
+    }
+
+    /**
+     * Get the number of callbacks waiting for the next frame.
+     */
+    public synchronized int getPendingCount() {
+        return callbacks.size();
+    }
+}
@@ -0,0 +1,26 @@
+/*
+  ADAPTED FOR ANDROID FROM:
+  RobotLegs / PureMVC AS3 Utility - StateMachine
+  Copyright (c) 2008 Neil Manuell, Cliff Hall;
+  Copyright (c) 2013 Android Alliance Ltd
+  Your reuse is governed by the Creative Commons Attribution 3.0 License
+  http://creativecommons.org/licenses/by/3.0/
+ */
+package uk.co.androidalliance.fsm.flow;
+
+/**
+ * A source of items delivered on demand, shaped as <code>java.util.concurrent.Flow.Publisher</code>.
+ * <p/>
+ * Flow only exists from Java 9 and Android API 30, so the library declares
+ * the same contract, that of Reactive Streams, in its own types. An adapter
+ * to Flow or to <code>org.reactivestreams</code> only forwards the calls.</P>
+ *
+ * @param <T> the type of the items.
+ */
+public interface Publisher<T> {
+
+    /**
+     * Adds a subscriber, which is given its Subscription through <code>onSubscribe</code>.
+     */
+    void subscribe(Subscriber<? super T> subscriber);
+}
@@ -0,0 +1,70 @@
+/*
+  ADAPTED FOR ANDROID FROM:
+  RobotLegs / PureMVC AS3 Utility - StateMachine
+  Copyright (c) 2008 Neil Manuell, Cliff Hall;
+  Copyright (c) 2013 Android Alliance Ltd
+  Your reuse is governed by the Creative Commons Attribution 3.0 License
+  http://creativecommons.org/licenses/by/3.0/
+ */
+package uk.co.androidalliance.fsm.flow;
+
+import uk.co.androidalliance.fsm.PrimitiveAction;
+import uk.co.androidalliance.fsm.State;
+import uk.co.androidalliance.fsm.StateMachine;
+import uk.co.androidalliance.fsm.interfaces.ActionType;
+
+/**
+ * A state a machine changed to, and the action that led there.
+ * <p/>
+ * For an action fired with <code>stateAction(TargetType, long)</code>, the
+ * action is the PrimitiveAction and the long is kept in <code>getPrimitivePayload</code>.</P>
+ */
+public final class StateChange {
+
+    private final StateMachine machine;
+
+    private final State state;
+
+    private final ActionType actionType;
+
+    private final long primitivePayload;
+
+    public StateChange(StateMachine machine, State state, ActionType actionType) {
+        this(machine, state, actionType, 0L);
+    }
+
+    /**
+     * @param primitivePayload the payload of a PrimitiveAction, 0 for any other action.
+     */
+    public StateChange(StateMachine machine, State state, ActionType actionType, long primitivePayload) {
+        this.machine = machine;
+        this.state = state;
+        this.actionType = actionType;
+        this.primitivePayload = primitivePayload;
+    }
+
+    public StateMachine getMachine() {
+        return machine;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public ActionType getActionType() {
+        return actionType;
+    }
+
+    /**
+     * Get the payload of the action when it is the PrimitiveAction, 0 otherwise.
+     */
+    public long getPrimitivePayload() {
+        return primitivePayload;
+    }
+
+    @Override
+    public String toString() {
+        return "StateChange: " + machine.getId() + " to " + state.getStateType() + " by " + actionType
+                + (actionType == PrimitiveAction.INSTANCE ? " " + primitivePayload : "");
+    }
+}
@@ -0,0 +1,405 @@
+/*
+  ADAPTED FOR ANDROID FROM:
+  RobotLegs / PureMVC AS3 Utility - StateMachine
+  Copyright (c) 2008 Neil Manuell, Cliff Hall;
+  Copyright (c) 2013 Android Alliance Ltd
+  Your reuse is governed by the Creative Commons Attribution 3.0 License
+  http://creativecommons.org/licenses/by/3.0/
+ */
+package uk.co.androidalliance.fsm.flow;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import uk.co.androidalliance.fsm.PrimitiveAction;
+import uk.co.androidalliance.fsm.State;
+import uk.co.androidalliance.fsm.StateMachine;
+import uk.co.androidalliance.fsm.StateMachineRuntime;
+import uk.co.androidalliance.fsm.interfaces.ActionType;
+
+/**
+ * Publishes the changes of one or many StateMachines to subscribers pulling them at their own pace.
+ * <p/>
+ * Every subscriber has its own buffer, filled by the <code>onChanged</code>
+ * notifications of the attached machines and drained on the Executor, no
+ * faster than the subscriber requested. The thread running a transition only
+ * appends to the buffers: it never waits for a subscriber, what a full buffer
+ * does is up to the OverflowStrategy.</P>
+ * <p/>
+ * Attach the machines of a StateMachineRuntime by creating them through
+ * <code>wrap(factory)</code>.</P>
+ */
+public class StateChangePublisher implements Publisher<StateChange> {
+
+    /**
+     * What happens to a change that does not fit in the buffer of a subscriber.
+     */
+    public enum OverflowStrategy {
+        // Fails the subscription with an IllegalStateException, once the buffered changes are delivered
+        BUFFER,
+        // Replaces the pending change of the same machine, keeping one per machine
+        LATEST,
+        // Drops the change
+        DROP
+    }
+
+    private final Executor executor;
+
+    private final int capacity;
+
+    private final OverflowStrategy overflowStrategy;
+
+    private final CopyOnWriteArrayList<ChangeSubscription> subscriptions = new CopyOnWriteArrayList<ChangeSubscription>();
+
+    private final ConcurrentMap<StateMachine, Tap> taps = new ConcurrentHashMap<StateMachine, Tap>();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private volatile boolean closed;
+
+    /**
+     * @param executor runs the deliveries to the subscribers.
+     * @param capacity how many changes each subscriber may have pending,
+     *                 or how many machines with LATEST.
+     * @param overflowStrategy what to do with a change once the buffer is full.
+     */
+    public StateChangePublisher(Executor executor, int capacity, OverflowStrategy overflowStrategy) {
+        if (executor == null || capacity < 1 || overflowStrategy == null) {
+            throw new IllegalArgumentException("capacity: " + capacity + ", overflowStrategy: " + overflowStrategy);
+        }
+        this.executor = executor;
+        this.capacity = capacity;
+        this.overflowStrategy = overflowStrategy;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super StateChange> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        ChangeSubscription subscription = new ChangeSubscription(subscriber);
+        if (closed) {
+            subscription.complete();
+            return;
+        }
+        subscriptions.add(subscription);
+        subscription.schedule();
+    }
+
+    /**
+     * Publishes the changes of a machine, from the thread running its transitions.
+     * <p/>
+     * Adds an observer to the machine, so must be called where adding one is safe.</P>
+     */
+    public void attach(StateMachine machine) {
+        Tap tap = new Tap(machine);
+        if (taps.putIfAbsent(machine, tap) == null) {
+            machine.addObserver(tap);
+        }
+    }
+
+    /**
+     * Stops publishing the changes of a machine.
+     */
+    public void detach(StateMachine machine) {
+        Tap tap = taps.remove(machine);
+        if (tap != null) {
+            machine.removeObserver(tap);
+        }
+    }
+
+    /**
+     * Get a Factory attaching every machine the given one creates, for a StateMachineRuntime.
+     */
+    public <K> StateMachineRuntime.Factory<K> wrap(final StateMachineRuntime.Factory<K> factory) {
+        return new StateMachineRuntime.Factory<K>() {
+            @Override
+            public StateMachine create(K key) {
+                StateMachine machine = factory.create(key);
+                attach(machine);
+                return machine;
+            }
+        };
+    }
+
+    /**
+     * Completes every subscription once its pending changes have been delivered.
+     * <p/>
+     * Changes published afterwards are ignored.</P>
+     */
+    public void close() {
+        closed = true;
+        for (ChangeSubscription subscription : subscriptions) {
+            subscription.complete();
+        }
+    }
+
+    /**
+     * Get the number of changes dropped or replaced because a buffer was full.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Get the number of live subscriptions.
+     */
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    private void publish(StateChange change) {
+        if (closed) {
+            return;
+        }
+        for (ChangeSubscription subscription : subscriptions) {
+            subscription.offer(change);
+        }
+    }
+
+    /**
+     * The observer added to an attached machine.
+     */
+    private final class Tap implements StateMachine.PrimitiveObserver {
+
+        private final StateMachine machine;
+
+        Tap(StateMachine machine) {
+            this.machine = machine;
+        }
+
+        @Override
+        public void onStateEntering(State state) {
+        }
+
+        @Override
+        public void onStateExiting(State state) {
+        }
+
+        @Override
+        public void onStateChanged(State state) {
+        }
+
+        @Override
+        public void onChanged(State state, ActionType actionType) {
+            publish(new StateChange(machine, state, actionType));
+        }
+
+        @Override
+        public void onChanged(State state, long payload) {
+            publish(new StateChange(machine, state, PrimitiveAction.INSTANCE, payload));
+        }
+    }
+
+    /**
+     * The buffer and demand of a subscriber.
+     * <p/>
+     * Every signal to the subscriber, <code>onSubscribe</code> included, is
+     * sent from <code>run</code>, which the work counter keeps from running
+     * twice at once.</P>
+     */
+    private final class ChangeSubscription implements Subscription, Runnable {
+
+        private final Subscriber<? super StateChange> subscriber;
+
+        // Changes pending in arrival order, for BUFFER and DROP
+        private final ArrayDeque<StateChange> queue;
+
+        // Changes pending by machine, for LATEST
+        private final LinkedHashMap<StateMachine, StateChange> latest;
+
+        private final AtomicLong requested = new AtomicLong();
+
+        // Number of schedule calls not yet seen by run
+        private final AtomicInteger work = new AtomicInteger();
+
+        private volatile boolean canceled;
+
+        private volatile boolean completed;
+
+        // Signaled at once
+        private volatile Throwable error;
+
+        // Signaled once the buffer is drained
+        private volatile boolean overflowed;
+
+        // Only touched by run
+        private boolean subscribed;
+
+        ChangeSubscription(Subscriber<? super StateChange> subscriber) {
+            this.subscriber = subscriber;
+            if (overflowStrategy == OverflowStrategy.LATEST) {
+                this.queue = null;
+                this.latest = new LinkedHashMap<StateMachine, StateChange>();
+            } else {
+                this.queue = new ArrayDeque<StateChange>();
+                this.latest = null;
+            }
+        }
+
+        void offer(StateChange change) {
+            if (canceled || completed || overflowed) {
+                return;
+            }
+            boolean accepted = true;
+            synchronized (this) {
+                if (latest != null) {
+                    if (latest.containsKey(change.getMachine())) {
+                        latest.put(change.getMachine(), change);
+                        dropped.incrementAndGet();
+                    } else if (latest.size() < capacity) {
+                        latest.put(change.getMachine(), change);
+                    } else {
+                        accepted = false;
+                    }
+                } else if (queue.size() < capacity) {
+                    queue.add(change);
+                } else {
+                    accepted = false;
+                }
+            }
+            if (!accepted) {
+                dropped.incrementAndGet();
+                if (overflowStrategy == OverflowStrategy.BUFFER) {
+                    overflowed = true;
+                    schedule();
+                }
+                return;
+            }
+            if (requested.get() != 0) {
+                schedule();
+            }
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("request: " + n));
+                return;
+            }
+            for (;;) {
+                long current = requested.get();
+                long next = current + n;
+                if (next < 0) {
+                    // no limit once past Long.MAX_VALUE
+                    next = Long.MAX_VALUE;
+                }
+                if (requested.compareAndSet(current, next)) {
+                    break;
+                }
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            canceled = true;
+            subscriptions.remove(this);
+            schedule();
+        }
+
+        void complete() {
+            completed = true;
+            schedule();
+        }
+
+        private void fail(Throwable throwable) {
+            if (error == null) {
+                error = throwable;
+            }
+            schedule();
+        }
+
+        void schedule() {
+            if (work.getAndIncrement() == 0) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            for (int missed = 1; missed != 0; missed = work.addAndGet(-missed)) {
+                if (!subscribed) {
+                    subscribed = true;
+                    subscriber.onSubscribe(this);
+                }
+                try {
+                    drain();
+                } catch (RuntimeException e) {
+                    // a subscriber throwing breaks its contract, it gets nothing more
+                    terminate();
+                    throw e;
+                }
+            }
+        }
+
+        private void drain() {
+            for (;;) {
+                if (canceled) {
+                    clear();
+                    return;
+                }
+                Throwable throwable = error;
+                if (throwable != null) {
+                    terminate();
+                    subscriber.onError(throwable);
+                    return;
+                }
+                StateChange next = null;
+                boolean empty;
+                synchronized (this) {
+                    empty = queue != null ? queue.isEmpty() : latest.isEmpty();
+                    if (!empty && requested.get() != 0) {
+                        next = poll();
+                    }
+                }
+                if (next == null) {
+                    if (empty && overflowed) {
+                        terminate();
+                        subscriber.onError(new IllegalStateException("StateChangePublisher buffer full, capacity: " + capacity));
+                    } else if (empty && completed) {
+                        terminate();
+                        subscriber.onComplete();
+                    }
+                    return;
+                }
+                if (requested.get() != Long.MAX_VALUE) {
+                    requested.decrementAndGet();
+                }
+                subscriber.onNext(next);
+            }
+        }
+
+        private StateChange poll() {
+            if (queue != null) {
+                return queue.poll();
+            }
+            Iterator<Map.Entry<StateMachine, StateChange>> iterator = latest.entrySet().iterator();
+            StateChange change = iterator.next().getValue();
+            iterator.remove();
+            return change;
+        }
+
+        private void terminate() {
+            canceled = true;
+            subscriptions.remove(this);
+            clear();
+        }
+
+        private synchronized void clear() {
+            if (queue != null) {
+                queue.clear();
+            } else {
+                latest.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/*
+  ADAPTED FOR ANDROID FROM:
+  RobotLegs / PureMVC AS3 Utility - StateMachine
+  Copyright (c) 2008 Neil Manuell, Cliff Hall;
+  Copyright (c) 2013 Android Alliance Ltd
+  Your reuse is governed by the Creative Commons Attribution 3.0 License
+  http://creativecommons.org/licenses/by/3.0/
+ */
+package uk.co.androidalliance.fsm.flow;
+
+/**
+ * Receives the items of a Publisher, no more than it requested through its Subscription.
+ * <p/>
+ * The calls are never concurrent, and <code>onSubscribe</code> comes first.</P>
+ *
+ * @param <T> the type of the items.
+ */
+public interface Subscriber<T> {
+
+    void onSubscribe(Subscription subscription);
+
+    void onNext(T item);
+
+    /**
+     * The subscription failed, no further call is made.
+     */
+    void onError(Throwable throwable);
+
+    /**
+     * The publisher was closed and every item delivered, no further call is made.
+     */
+    void onComplete();
+}
@@ -0,0 +1,25 @@
+/*
+  ADAPTED FOR ANDROID FROM:
+  RobotLegs / PureMVC AS3 Utility - StateMachine
+  Copyright (c) 2008 Neil Manuell, Cliff Hall;
+  Copyright (c) 2013 Android Alliance Ltd
+  Your reuse is governed by the Creative Commons Attribution 3.0 License
+  http://creativecommons.org/licenses/by/3.0/
+ */
+package uk.co.androidalliance.fsm.flow;
+
+/**
+ * Links a Subscriber to its Publisher.
+ */
+public interface Subscription {
+
+    /**
+     * Asks for up to <code>n</code> more items, <code>Long.MAX_VALUE</code> meaning no limit.
+     */
+    void request(long n);
+
+    /**
+     * Stops the delivery of items, which may go on for a short while.
+     */
+    void cancel();
+}
@@ -0,0 +1,357 @@
+/*
+  ADAPTED FOR ANDROID FROM:
+  RobotLegs / PureMVC AS3 Utility - StateMachine
+  Copyright (c) 2008 Neil Manuell, Cliff Hall;
+  Copyright (c) 2013 Android Alliance Ltd
+  Your reuse is governed by the Creative Commons Attribution 3.0 License
+  http://creativecommons.org/licenses/by/3.0/
+ */
+package uk.co.androidalliance.fsm.journal;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import uk.co.androidalliance.fsm.State;
+import uk.co.androidalliance.fsm.StateMachine;
+import uk.co.androidalliance.fsm.StateMachineDefinition;
+import uk.co.androidalliance.fsm.interfaces.ActionType;
+import uk.co.androidalliance.fsm.interfaces.TargetType;
+
+/**
+ * Writes incremental checkpoints of a population of machines whose ids run from 0 to <code>capacity - 1</code>.
+ * <p/>
+ * Attach the machines with <code>attach</code>, from the Factory of a
+ * StateMachineRuntime for instance. Every commit copies the new state's
+ * ordinal into a shadow array and marks the machine dirty in a bitset,
+ * without any lock. <code>checkpoint</code> swaps the bitset for a clean
+ * one and writes only the (id, ordinal) pairs of the machines marked since
+ * the previous checkpoint to a new delta file, reading the shadow array,
+ * so transitions keep being processed meanwhile.</P>
+ * <p/>
+ * <code>compact</code> merges the latest base image and the deltas written
+ * so far into a new base image, in the MachineSnapshot format, and may run
+ * concurrently with <code>checkpoint</code>. <code>restore</code> applies
+ * the latest base image then every newer delta.</P>
+ */
+public class Checkpointer implements StateMachine.CommitListener {
+
+    static final int DELTA_MAGIC = 0x46534d44;
+
+    static final String DELTA_SUFFIX = ".delta";
+
+    static final String BASE_SUFFIX = ".base";
+
+    // magic, version, fingerprint, count
+    static final int DELTA_HEADER_SIZE = 24;
+
+    // id, entry
+    static final int DELTA_ENTRY_SIZE = 10;
+
+    private final File directory;
+
+    private final StateMachineDefinition definition;
+
+    // ordinal of each machine's state plus one, 0 until its first commit
+    private final AtomicIntegerArray states;
+
+    // Two bitsets used in turn, so that a bit set late in the old one is
+    // only picked up by the next checkpoint rather than lost
+    private final AtomicLongArray[] dirty = new AtomicLongArray[2];
+
+    // Selects the bitset commits are marked in
+    private volatile int generation;
+
+    // Guards sequence and the bitset swap
+    private final Object checkpointLock = new Object();
+
+    // Serializes the compactions
+    private final Object compactLock = new Object();
+
+    // Sequence number of the last delta or base written
+    private long sequence;
+
+    /**
+     * @param directory the directory holding the checkpoint files.
+     * @param definition the definition of the machines, must be enum indexed.
+     * @param capacity the number of machine ids tracked.
+     */
+    public Checkpointer(File directory, StateMachineDefinition definition, int capacity) throws IOException {
+        if (!definition.isEnumIndexed() || capacity < 1) {
+            throw new IllegalArgumentException("enum indexed: " + definition.isEnumIndexed() + ", capacity: " + capacity);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        this.directory = directory;
+        this.definition = definition;
+        this.states = new AtomicIntegerArray(capacity);
+        dirty[0] = new AtomicLongArray((capacity + 63) >>> 6);
+        dirty[1] = new AtomicLongArray((capacity + 63) >>> 6);
+        File[] deltas = list(directory, DELTA_SUFFIX);
+        File[] bases = list(directory, BASE_SUFFIX);
+        if (deltas.length > 0) {
+            sequence = sequenceOf(deltas[deltas.length - 1]);
+        }
+        if (bases.length > 0) {
+            sequence = Math.max(sequence, sequenceOf(bases[bases.length - 1]));
+        }
+    }
+
+    /**
+     * Checkpoints a machine from now on, adding this as one of its CommitListeners.
+     *
+     * @throws IllegalArgumentException if the id of the machine is not below the capacity.
+     */
+    public void attach(StateMachine machine) {
+        long id = machine.getId();
+        if (id < 0 || id >= states.length()) {
+            throw new IllegalArgumentException("Machine id out of range: " + id + ", capacity: " + states.length());
+        }
+        machine.addCommitListener(this);
+    }
+
+    @Override
+    public void onCommit(StateMachine machine, State from, TargetType targetType, State to, ActionType actionType) {
+        long id = machine.getId();
+        if (id < 0 || id >= states.length()) {
+            // checked by attach, the id was changed since; the state is committed already
+            return;
+        }
+        int index = (int) id;
+        // a volatile write, seen by a checkpoint clearing the bit after this commit reads it,
+        // even when the bit is already set and left as is
+        states.set(index, definition.ordinalOf(to) + 1);
+        AtomicLongArray bits = dirty[generation & 1];
+        long mask = 1L << index;
+        for (;;) {
+            long word = bits.get(index >>> 6);
+            if ((word & mask) != 0 || bits.compareAndSet(index >>> 6, word, word | mask)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Writes a delta of the machines changed since the previous checkpoint.
+     *
+     * @return the number of machines written, 0 when no delta was needed.
+     */
+    public int checkpoint() throws IOException {
+        synchronized (checkpointLock) {
+            int current = generation;
+            generation = current + 1;
+            AtomicLongArray bits = dirty[current & 1];
+
+            int count = 0;
+            int[] ids = new int[64];
+            for (int i = 0, n = bits.length(); i < n; i++) {
+                long word = bits.get(i) != 0 ? bits.getAndSet(i, 0) : 0;
+                while (word != 0) {
+                    if (count == ids.length) {
+                        ids = Arrays.copyOf(ids, count * 2);
+                    }
+                    ids[count++] = (i << 6) + Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                }
+            }
+            if (count == 0) {
+                return 0;
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(DELTA_HEADER_SIZE + count * DELTA_ENTRY_SIZE);
+            buffer.putInt(DELTA_MAGIC);
+            buffer.putInt(MachineSnapshot.VERSION);
+            buffer.putLong(definition.getFingerprint());
+            buffer.putLong(count);
+            for (int i = 0; i < count; i++) {
+                buffer.putLong(ids[i]);
+                buffer.putShort((short) states.get(ids[i]));
+            }
+            buffer.flip();
+            write(buffer, sequence + 1, DELTA_SUFFIX);
+            sequence++;
+            return count;
+        }
+    }
+
+    /**
+     * Merges the latest base image and the deltas written so far into a new base image.
+     */
+    public void compact() throws IOException {
+        synchronized (compactLock) {
+            long last;
+            synchronized (checkpointLock) {
+                last = sequence;
+            }
+            File[] bases = list(directory, BASE_SUFFIX);
+            File base = bases.length > 0 ? bases[bases.length - 1] : null;
+            final Image image = new Image();
+            long baseSequence = load(directory, definition, base, image);
+            boolean merged = false;
+            for (File delta : list(directory, DELTA_SUFFIX)) {
+                long deltaSequence = sequenceOf(delta);
+                if (deltaSequence > baseSequence && deltaSequence <= last) {
+                    readDelta(delta, definition, image);
+                    merged = true;
+                }
+            }
+            if (!merged) {
+                return;
+            }
+
+            File file = new File(directory, name(last, BASE_SUFFIX));
+            File temporary = new File(directory, file.getName() + ".tmp");
+            MachineSnapshot.writeFrom(temporary, definition, image.count, new MachineSnapshot.Source() {
+                @Override
+                public int entryAt(long id) {
+                    return image.entries[(int) id];
+                }
+            });
+            if (!temporary.renameTo(file)) {
+                throw new IOException("Cannot rename " + temporary);
+            }
+            for (File older : bases) {
+                older.delete();
+            }
+            for (File delta : list(directory, DELTA_SUFFIX)) {
+                if (sequenceOf(delta) <= last) {
+                    delta.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Restores every machine from the latest base image and the deltas written after it.
+     *
+     * @param lookup finds or creates each machine to restore.
+     * @return the number of machines restored.
+     * @throws IOException if a file was written with another definition.
+     */
+    public static long restore(File directory, StateMachineDefinition definition, ReplayEngine.MachineLookup lookup)
+            throws IOException {
+        File[] bases = list(directory, BASE_SUFFIX);
+        Image image = new Image();
+        long baseSequence = load(directory, definition, bases.length > 0 ? bases[bases.length - 1] : null, image);
+        for (File delta : list(directory, DELTA_SUFFIX)) {
+            if (sequenceOf(delta) > baseSequence) {
+                readDelta(delta, definition, image);
+            }
+        }
+        long restored = 0;
+        for (int id = 0; id < image.count; id++) {
+            int entry = image.entries[id];
+            if (entry != 0) {
+                lookup.get(id).restore(definition.stateAt(entry - 1));
+                restored++;
+            }
+        }
+        return restored;
+    }
+
+    private void write(ByteBuffer buffer, long fileSequence, String suffix) throws IOException {
+        File file = new File(directory, name(fileSequence, suffix));
+        File temporary = new File(directory, file.getName() + ".tmp");
+        RandomAccessFile out = new RandomAccessFile(temporary, "rw");
+        try {
+            FileChannel channel = out.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } finally {
+            out.close();
+        }
+        if (!temporary.renameTo(file)) {
+            throw new IOException("Cannot rename " + temporary);
+        }
+    }
+
+    /**
+     * @return the sequence number of the base, 0 without one.
+     */
+    private static long load(File directory, StateMachineDefinition definition, File base, final Image image)
+            throws IOException {
+        if (base == null) {
+            return 0;
+        }
+        MachineSnapshot.readInto(base, definition, new MachineSnapshot.Sink() {
+            @Override
+            public void entry(long id, int entry) {
+                image.set(id, entry);
+            }
+        });
+        return sequenceOf(base);
+    }
+
+    private static void readDelta(File delta, StateMachineDefinition definition, Image image) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(delta, "r");
+        try {
+            ByteBuffer buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+            if (buffer.remaining() < DELTA_HEADER_SIZE || buffer.getInt() != DELTA_MAGIC
+                    || buffer.getInt() != MachineSnapshot.VERSION) {
+                throw new IOException("Not a delta: " + delta);
+            }
+            if (buffer.getLong() != definition.getFingerprint()) {
+                throw new IOException("Delta written with another definition: " + delta);
+            }
+            long count = buffer.getLong();
+            if (buffer.remaining() < count * DELTA_ENTRY_SIZE) {
+                throw new IOException("Truncated delta: " + delta);
+            }
+            for (long i = 0; i < count; i++) {
+                long id = buffer.getLong();
+                image.set(id, buffer.getShort() & 0xffff);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static File[] list(File directory, final String suffix) {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(suffix);
+            }
+        });
+        if (files == null) {
+            return new File[0];
+        }
+        // names are zero-padded, so they sort by sequence
+        Arrays.sort(files);
+        return files;
+    }
+
+    private static String name(long fileSequence, String suffix) {
+        return String.format("%020d", fileSequence) + suffix;
+    }
+
+    private static long sequenceOf(File file) {
+        String name = file.getName();
+        return Long.parseLong(name.substring(0, name.indexOf('.')));
+    }
+
+    /**
+     * Entries by machine id, growing as ids are set.
+     */
+    private static final class Image {
+        int[] entries = new int[1024];
+        int count;
+
+        void set(long id, int entry) {
+            if (id >= entries.length) {
+                entries = Arrays.copyOf(entries, (int) Math.max(id + 1, entries.length * 2L));
+            }
+            entries[(int) id] = entry;
+            count = (int) Math.max(count, id + 1);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+  ADAPTED FOR ANDROID FROM:
+  RobotLegs / PureMVC AS3 Utility - StateMachine
+  Copyright (c) 2008 Neil Manuell, Cliff Hall;
+  Copyright (c) 2013 Android Alliance Ltd
+  Your reuse is governed by the Creative Commons Attribution 3.0 License
+  http://creativecommons.org/licenses/by/3.0/
+ */
+package uk.co.androidalliance.fsm.journal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the records of a TransitionJournal back, segment by segment, in append order.
+ */
+public class JournalReader implements Closeable {
+
+    private final File[] segments;
+
+    private int segment = -1;
+
+    private MappedByteBuffer buffer;
+
+    /**
+     * @param directory the directory holding the segment files.
+     */
+    public JournalReader(File directory) {
+        this.segments = TransitionJournal.listSegments(directory);
+    }
+
+    /**
+     * Reads the next record.
+     *
+     * @param record filled with the record read.
+     * @return false when every segment has been read.
+     */
+    public boolean next(JournalRecord record) throws IOException {
+        for (;;) {
+            if (buffer != null && buffer.remaining() >= TransitionJournal.HEADER_SIZE) {
+                int start = buffer.position();
+                int length = buffer.getInt(start);
+                if (length >= TransitionJournal.HEADER_SIZE && start + length <= buffer.limit()) {
+                    read(start, length, record);
+                    buffer.position(start + length);
+                    return true;
+                }
+            }
+            if (!openNext()) {
+                return false;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        buffer = null;
+        segment = segments.length;
+    }
+
+    private void read(int start, int length, JournalRecord record) {
+        int payloadLength = buffer.getInt(start + 4);
+        record.machineId = buffer.getLong(start + 8);
+        record.timestamp = buffer.getLong(start + 16);
+        record.fromOrdinal = buffer.getInt(start + 24);
+        record.targetOrdinal = buffer.getInt(start + 28);
+        record.toOrdinal = buffer.getInt(start + 32);
+        record.primitive = (buffer.getInt(start + 36) & TransitionJournal.FLAG_PRIMITIVE_PAYLOAD) != 0;
+        if (record.primitive) {
+            record.primitivePayload = buffer.getLong(start + TransitionJournal.HEADER_SIZE);
+            record.payload = null;
+        } else if (payloadLength == TransitionJournal.NO_PAYLOAD) {
+            record.payload = null;
+        } else {
+            ByteBuffer payload = buffer.duplicate();
+            payload.position(start + TransitionJournal.HEADER_SIZE);
+            payload.limit(start + TransitionJournal.HEADER_SIZE + payloadLength);
+            record.payload = payload.slice();
+        }
+    }
+
+    private boolean openNext() throws IOException {
+        buffer = null;
+        if (++segment >= segments.length) {
+            return false;
+        }
+        RandomAccessFile file = new RandomAccessFile(segments[segment], "r");
+        try {
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        } finally {
+            // the mapping stays valid once the file is closed
+            file.close();
+        }
+        return true;
+    }
+}
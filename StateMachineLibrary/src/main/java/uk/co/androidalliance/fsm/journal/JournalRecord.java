@@ -0,0 +1,80 @@
+/*
+  ADAPTED FOR ANDROID FROM:
+  RobotLegs / PureMVC AS3 Utility - StateMachine
+  Copyright (c) 2008 Neil Manuell, Cliff Hall;
+  Copyright (c) 2013 Android Alliance Ltd
+  Your reuse is governed by the Creative Commons Attribution 3.0 License
+  http://creativecommons.org/licenses/by/3.0/
+ */
+package uk.co.androidalliance.fsm.journal;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One transition read back from a journal, reused by JournalReader for every record.
+ * <p/>
+ * States and targets are stored as the ordinals of their enum constants,
+ * -1 standing for none, as for the start of a machine.</P>
+ */
+public final class JournalRecord {
+
+    long machineId;
+    long timestamp;
+    int fromOrdinal;
+    int targetOrdinal;
+    int toOrdinal;
+    ByteBuffer payload;
+    boolean primitive;
+    long primitivePayload;
+
+    public long getMachineId() {
+        return machineId;
+    }
+
+    /**
+     * Get the time of the commit, in milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int getFromOrdinal() {
+        return fromOrdinal;
+    }
+
+    public int getTargetOrdinal() {
+        return targetOrdinal;
+    }
+
+    public int getToOrdinal() {
+        return toOrdinal;
+    }
+
+    /**
+     * Get the serialized payload, valid until the next record is read.
+     *
+     * @return the payload bytes, or null if the action carried none or was a PrimitiveAction.
+     */
+    public ByteBuffer getPayload() {
+        return payload;
+    }
+
+    /**
+     * Whether the action was fired with <code>stateAction(TargetType, long)</code>.
+     */
+    public boolean hasPrimitivePayload() {
+        return primitive;
+    }
+
+    /**
+     * Get the long payload of the PrimitiveAction, 0 when <code>hasPrimitivePayload</code> is false.
+     */
+    public long getPrimitivePayload() {
+        return primitive ? primitivePayload : 0L;
+    }
+
+    @Override
+    public String toString() {
+        return "JournalRecord: machine " + machineId + ", " + fromOrdinal + " -" + targetOrdinal + "-> " + toOrdinal + " at " + timestamp;
+    }
+}
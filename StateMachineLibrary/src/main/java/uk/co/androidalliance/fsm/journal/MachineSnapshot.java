@@ -0,0 +1,180 @@
+/*
+  ADAPTED FOR ANDROID FROM:
+  RobotLegs / PureMVC AS3 Utility - StateMachine
+  Copyright (c) 2008 Neil Manuell, Cliff Hall;
+  Copyright (c) 2013 Android Alliance Ltd
+  Your reuse is governed by the Creative Commons Attribution 3.0 License
+  http://creativecommons.org/licenses/by/3.0/
+ */
+package uk.co.androidalliance.fsm.journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import uk.co.androidalliance.fsm.StateMachine;
+import uk.co.androidalliance.fsm.StateMachineDefinition;
+
+/**
+ * Writes and restores the current state of a population of machines whose ids run from 0.
+ * <p/>
+ * A snapshot is a 24 byte header, holding the fingerprint of the definition,
+ * followed by one entry per machine id: the ordinal of its current state
+ * plus one, 0 for a machine not started or missing, stored on 1 byte when
+ * the StateType has fewer than 255 constants and on 2 bytes otherwise.</P>
+ * <p/>
+ * Restoring maps the file and puts each machine straight into its state
+ * with <code>StateMachine.restore</code>, so no observer is notified.</P>
+ */
+public final class MachineSnapshot {
+
+    static final int MAGIC = 0x46534d53;
+
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 24;
+
+    // bytes mapped at a time
+    private static final long CHUNK = 1L << 28;
+
+    private MachineSnapshot() {
+    }
+
+    /**
+     * The entry of each machine id, the ordinal of its state plus one or 0.
+     */
+    interface Source {
+        int entryAt(long id);
+    }
+
+    /**
+     * Receives the entries read, except the 0 ones.
+     */
+    interface Sink {
+        void entry(long id, int entry);
+    }
+
+    /**
+     * Writes the current state of machines 0 to <code>count - 1</code>.
+     *
+     * @param definition the definition of the machines, must be enum indexed.
+     * @param lookup finds each machine, may return null for a missing one.
+     */
+    public static void write(File file, final StateMachineDefinition definition, long count,
+                             final ReplayEngine.MachineLookup lookup) throws IOException {
+        writeFrom(file, definition, count, new Source() {
+            @Override
+            public int entryAt(long id) {
+                StateMachine machine = lookup.get(id);
+                return machine != null ? definition.ordinalOf(machine.getCurrentState()) + 1 : 0;
+            }
+        });
+    }
+
+    /**
+     * Restores every machine with a state in the snapshot.
+     *
+     * @param definition the definition of the machines, with the fingerprint of the one written.
+     * @param lookup finds or creates each machine to restore.
+     * @return the number of machines restored.
+     * @throws IOException if the file is not a snapshot or was written with another definition.
+     */
+    public static long restore(File file, final StateMachineDefinition definition,
+                               final ReplayEngine.MachineLookup lookup) throws IOException {
+        return readInto(file, definition, new Sink() {
+            @Override
+            public void entry(long id, int entry) {
+                lookup.get(id).restore(definition.stateAt(entry - 1));
+            }
+        });
+    }
+
+    static void writeFrom(File file, StateMachineDefinition definition, long count, Source source) throws IOException {
+        if (!definition.isEnumIndexed() || count < 0) {
+            throw new IllegalArgumentException("enum indexed: " + definition.isEnumIndexed() + ", count: " + count);
+        }
+        int width = widthOf(definition);
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            out.setLength(HEADER_SIZE + count * width);
+            FileChannel channel = out.getChannel();
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putShort((short) VERSION);
+            header.putShort((short) width);
+            header.putLong(definition.getFingerprint());
+            header.putLong(count);
+
+            long id = 0;
+            while (id < count) {
+                long entries = Math.min(count - id, CHUNK / width);
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + id * width, entries * width);
+                for (long end = id + entries; id < end; id++) {
+                    int entry = source.entryAt(id);
+                    if (width == 1) {
+                        chunk.put((byte) entry);
+                    } else {
+                        chunk.putShort((short) entry);
+                    }
+                }
+                chunk.force();
+            }
+            header.force();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return the number of entries other than 0.
+     */
+    static long readInto(File file, StateMachineDefinition definition, Sink sink) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = in.getChannel();
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException("Not a snapshot: " + file);
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            int magic = header.getInt();
+            int version = header.getShort();
+            int width = header.getShort();
+            long fingerprint = header.getLong();
+            long count = header.getLong();
+            if (magic != MAGIC || version != VERSION || (width != 1 && width != 2)
+                    || channel.size() < HEADER_SIZE + count * width) {
+                throw new IOException("Not a snapshot: " + file);
+            }
+            if (fingerprint != definition.getFingerprint()) {
+                throw new IOException("Snapshot written with another definition: " + file);
+            }
+
+            long read = 0;
+            long id = 0;
+            while (id < count) {
+                long entries = Math.min(count - id, CHUNK / width);
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + id * width, entries * width);
+                for (long end = id + entries; id < end; id++) {
+                    int entry = width == 1 ? chunk.get() & 0xff : chunk.getShort() & 0xffff;
+                    if (entry != 0) {
+                        sink.entry(id, entry);
+                        read++;
+                    }
+                }
+            }
+            return read;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static int widthOf(StateMachineDefinition definition) {
+        int stateCount = definition.getStateCount();
+        if (stateCount >= 0xffff) {
+            throw new IllegalArgumentException("Too many states: " + stateCount);
+        }
+        return stateCount < 0xff ? 1 : 2;
+    }
+}
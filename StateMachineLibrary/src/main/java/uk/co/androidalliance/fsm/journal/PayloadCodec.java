@@ -0,0 +1,34 @@
+/*
+  ADAPTED FOR ANDROID FROM:
+  RobotLegs / PureMVC AS3 Utility - StateMachine
+  Copyright (c) 2008 Neil Manuell, Cliff Hall;
+  Copyright (c) 2013 Android Alliance Ltd
+  Your reuse is governed by the Creative Commons Attribution 3.0 License
+  http://creativecommons.org/licenses/by/3.0/
+ */
+package uk.co.androidalliance.fsm.journal;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Serializes the payload of an ActionType into journal records.
+ */
+public interface PayloadCodec {
+
+    /**
+     * Writes a payload at the buffer's position, advancing it.
+     * <p/>
+     * May throw a <code>BufferOverflowException</code> when the payload does
+     * not fit, the record is then moved to a new segment.</P>
+     *
+     * @param payload the payload, never null.
+     */
+    void encode(Object payload, ByteBuffer buffer);
+
+    /**
+     * Reads a payload written by <code>encode</code>.
+     *
+     * @param buffer holds exactly the bytes written by <code>encode</code>.
+     */
+    Object decode(ByteBuffer buffer);
+}
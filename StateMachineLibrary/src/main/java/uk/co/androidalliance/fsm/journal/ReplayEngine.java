@@ -0,0 +1,259 @@
+/*
+  ADAPTED FOR ANDROID FROM:
+  RobotLegs / PureMVC AS3 Utility - StateMachine
+  Copyright (c) 2008 Neil Manuell, Cliff Hall;
+  Copyright (c) 2013 Android Alliance Ltd
+  Your reuse is governed by the Creative Commons Attribution 3.0 License
+  http://creativecommons.org/licenses/by/3.0/
+ */
+package uk.co.androidalliance.fsm.journal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import uk.co.androidalliance.fsm.State;
+import uk.co.androidalliance.fsm.StateMachine;
+import uk.co.androidalliance.fsm.StateMachineDefinition;
+import uk.co.androidalliance.fsm.TransitionResult;
+
+/**
+ * Rebuilds the current state of many machines from a TransitionJournal.
+ * <p/>
+ * Every recorded action is applied with <code>StateMachine.replay</code>,
+ * so no guard runs and no observer is notified. The journal is read in
+ * blocks of <code>blockSize</code> records, each block is split by machine
+ * id into <code>partitions</code> and the partitions are replayed in
+ * parallel on the ExecutorService, such as a ForkJoinPool, while the next
+ * block is being read. The records of one machine always land in the same
+ * partition, so they are applied in journal order.</P>
+ * <p/>
+ * A record whose action does not lead to its recorded state, the start of
+ * a machine for instance, restores the recorded state directly.</P>
+ */
+public class ReplayEngine {
+
+    public interface MachineLookup {
+        /**
+         * Get the machine of an id, creating it if needed, called from the partitions' threads.
+         */
+        StateMachine get(long machineId);
+    }
+
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 16;
+
+    private final StateMachineDefinition definition;
+
+    private final ExecutorService executor;
+
+    private final int partitions;
+
+    private final int blockSize;
+
+    /**
+     * @param definition the definition the journal was written with, must be enum indexed.
+     * @param executor runs the partitions.
+     * @param partitions the number of partitions replayed in parallel.
+     * @param blockSize the number of records read before the partitions are handed to the executor.
+     */
+    public ReplayEngine(StateMachineDefinition definition, ExecutorService executor, int partitions, int blockSize) {
+        if (!definition.isEnumIndexed() || executor == null || partitions < 1 || blockSize < 1) {
+            throw new IllegalArgumentException("enum indexed: " + definition.isEnumIndexed() + ", partitions: " + partitions
+                    + ", blockSize: " + blockSize);
+        }
+        this.definition = definition;
+        this.executor = executor;
+        this.partitions = partitions;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Replays every record of the journal.
+     *
+     * @param lookup finds the machine of each record.
+     * @param notify whether every machine replayed then notifies its observers
+     *               of its final state, with a null ActionType.
+     * @return the number of records replayed.
+     */
+    public long replay(JournalReader reader, MachineLookup lookup, boolean notify) throws IOException, InterruptedException {
+        List<Partition> parts = new ArrayList<Partition>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            parts.add(new Partition(definition, lookup));
+        }
+        Block reading = new Block(blockSize, partitions);
+        Block replaying = new Block(blockSize, partitions);
+        List<Future<Object>> pending = new ArrayList<Future<Object>>(partitions);
+        long count = 0;
+
+        boolean more = read(reader, reading);
+        while (reading.size > 0) {
+            Block block = reading;
+            reading = replaying;
+            replaying = block;
+            block.split(partitions);
+            for (int i = 0; i < partitions; i++) {
+                if (block.start(i) < block.start(i + 1)) {
+                    pending.add(executor.submit(parts.get(i).apply(block, i)));
+                }
+            }
+            count += block.size;
+            // read the next block meanwhile
+            if (more) {
+                more = read(reader, reading);
+            } else {
+                reading.size = 0;
+            }
+            await(pending);
+        }
+
+        if (notify) {
+            for (int i = 0; i < partitions; i++) {
+                pending.add(executor.submit(parts.get(i).notifyMachines()));
+            }
+            await(pending);
+        }
+        return count;
+    }
+
+    private boolean read(JournalReader reader, Block block) throws IOException {
+        JournalRecord record = new JournalRecord();
+        int n = 0;
+        boolean more = true;
+        while (n < blockSize && (more = reader.next(record))) {
+            block.ids[n] = record.machineId;
+            block.targets[n] = record.targetOrdinal;
+            block.tos[n] = record.toOrdinal;
+            n++;
+        }
+        block.size = n;
+        return more;
+    }
+
+    private static void await(List<Future<Object>> pending) throws InterruptedException {
+        try {
+            for (int i = 0; i < pending.size(); i++) {
+                pending.get(i).get();
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            pending.clear();
+        }
+    }
+
+    /**
+     * Records read from the journal, ordered by partition through <code>order</code>.
+     */
+    private static final class Block {
+        final long[] ids;
+        final int[] targets;
+        final int[] tos;
+        final int[] order;
+        // start of each partition in order, and its end
+        final int[] offsets;
+        int size;
+
+        Block(int blockSize, int partitions) {
+            ids = new long[blockSize];
+            targets = new int[blockSize];
+            tos = new int[blockSize];
+            order = new int[blockSize];
+            offsets = new int[partitions + 1];
+        }
+
+        void split(int partitions) {
+            int[] offsets = this.offsets;
+            for (int i = 0; i <= partitions; i++) {
+                offsets[i] = 0;
+            }
+            for (int i = 0; i < size; i++) {
+                offsets[partitionOf(ids[i], partitions) + 1]++;
+            }
+            for (int i = 1; i <= partitions; i++) {
+                offsets[i] += offsets[i - 1];
+            }
+            for (int i = 0; i < size; i++) {
+                order[offsets[partitionOf(ids[i], partitions)]++] = i;
+            }
+            // each offset now holds the end of its partition, shift them back
+            for (int i = partitions; i > 0; i--) {
+                offsets[i] = offsets[i - 1];
+            }
+            offsets[0] = 0;
+        }
+
+        int start(int partition) {
+            return offsets[partition];
+        }
+
+        static int partitionOf(long id, int partitions) {
+            long h = id * 0x9E3779B97F4A7C15L;
+            return (int) ((h >>> 32) % partitions);
+        }
+    }
+
+    /**
+     * The machines of one partition, only touched by one task at a time.
+     */
+    private static final class Partition {
+        final StateMachineDefinition definition;
+        final MachineLookup lookup;
+        final Map<Long, StateMachine> machines = new HashMap<Long, StateMachine>();
+
+        Partition(StateMachineDefinition definition, MachineLookup lookup) {
+            this.definition = definition;
+            this.lookup = lookup;
+        }
+
+        Callable<Object> apply(final Block block, final int partition) {
+            return new Callable<Object>() {
+                @Override
+                public Object call() {
+                    for (int i = block.start(partition), end = block.start(partition + 1); i < end; i++) {
+                        int record = block.order[i];
+                        apply(block.ids[record], block.targets[record], block.tos[record]);
+                    }
+                    return null;
+                }
+            };
+        }
+
+        void apply(long id, int target, int to) {
+            StateMachine machine = machines.get(id);
+            if (machine == null) {
+                machine = lookup.get(id);
+                machines.put(id, machine);
+            }
+            State recorded = definition.stateAt(to);
+            if (target < 0 || machine.replay(definition.targetAt(target)) != TransitionResult.CHANGED
+                    || machine.getCurrentState() != recorded) {
+                machine.restore(recorded);
+            }
+        }
+
+        Callable<Object> notifyMachines() {
+            return new Callable<Object>() {
+                @Override
+                public Object call() {
+                    for (StateMachine machine : machines.values()) {
+                        machine.notifyCurrentState(null);
+                    }
+                    return null;
+                }
+            };
+        }
+    }
+}
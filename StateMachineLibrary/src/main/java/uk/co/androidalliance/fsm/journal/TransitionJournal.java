@@ -0,0 +1,283 @@
+/*
+  ADAPTED FOR ANDROID FROM:
+  RobotLegs / PureMVC AS3 Utility - StateMachine
+  Copyright (c) 2008 Neil Manuell, Cliff Hall;
+  Copyright (c) 2013 Android Alliance Ltd
+  Your reuse is governed by the Creative Commons Attribution 3.0 License
+  http://creativecommons.org/licenses/by/3.0/
+ */
+package uk.co.androidalliance.fsm.journal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import uk.co.androidalliance.fsm.PrimitiveAction;
+import uk.co.androidalliance.fsm.State;
+import uk.co.androidalliance.fsm.StateMachine;
+import uk.co.androidalliance.fsm.StateMachineDefinition;
+import uk.co.androidalliance.fsm.interfaces.ActionType;
+import uk.co.androidalliance.fsm.interfaces.TargetType;
+
+/**
+ * An append-only journal of committed transitions, written to memory-mapped segment files.
+ * <p/>
+ * Add it as a CommitListener of the machines to journal. Each commit
+ * appends one record: a fixed 40 byte header holding the machine id, the
+ * commit time and the ordinals of the from state, target and to state,
+ * followed by the optional payload serialized by a PayloadCodec, or by the
+ * long payload of a PrimitiveAction, padded to 8 bytes. The record length
+ * is written last, so a reader never sees a half-written record.</P>
+ * <p/>
+ * Appending only copies into the mapped segment. The segments are flushed
+ * to disk by a background thread every <code>syncIntervalMillis</code>,
+ * grouping all the records appended meanwhile into one fsync, or on
+ * <code>sync</code>. A new segment file is started when a record does not
+ * fit in the current one.</P>
+ * <p/>
+ * The machines must use an enum indexed definition.</P>
+ */
+public class TransitionJournal implements StateMachine.CommitListener, Closeable {
+
+    static final String SUFFIX = ".journal";
+
+    // length, payload length, machine id, timestamp, from, target, to, flags
+    static final int HEADER_SIZE = 40;
+
+    static final int NO_PAYLOAD = -1;
+
+    // The payload is the 8 byte long of a PrimitiveAction
+    static final int FLAG_PRIMITIVE_PAYLOAD = 1;
+
+    private final File directory;
+
+    private final StateMachineDefinition definition;
+
+    private final PayloadCodec codec;
+
+    private final int segmentSize;
+
+    // Guards the current segment
+    private final Object lock = new Object();
+
+    private long segmentIndex;
+
+    private RandomAccessFile file;
+
+    private MappedByteBuffer buffer;
+
+    private volatile boolean dirty;
+
+    private volatile boolean closed;
+
+    private final Thread syncer;
+
+    /**
+     * Opens a journal, starting a new segment after any already in the directory.
+     *
+     * @param directory the directory holding the segment files.
+     * @param definition the definition of the machines journaled, must be enum indexed.
+     * @param segmentSize the size of each segment file, in bytes.
+     * @param codec serializes the payloads of the actions, or null not to journal them.
+     * @param syncIntervalMillis how often appended records are flushed to disk, 0 to only flush on <code>sync</code>.
+     */
+    public TransitionJournal(File directory, StateMachineDefinition definition, int segmentSize,
+                             PayloadCodec codec, long syncIntervalMillis) throws IOException {
+        if (!definition.isEnumIndexed() || segmentSize < HEADER_SIZE * 2) {
+            throw new IllegalArgumentException("enum indexed: " + definition.isEnumIndexed() + ", segmentSize: " + segmentSize);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        this.directory = directory;
+        this.definition = definition;
+        this.codec = codec;
+        this.segmentSize = segmentSize;
+        File[] segments = listSegments(directory);
+        segmentIndex = segments.length == 0 ? 0 : indexOf(segments[segments.length - 1]) + 1;
+        openSegment();
+
+        if (syncIntervalMillis > 0) {
+            final long interval = syncIntervalMillis;
+            syncer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (!closed) {
+                        try {
+                            Thread.sleep(interval);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        if (dirty) {
+                            sync();
+                        }
+                    }
+                }
+            }, "TransitionJournal-sync");
+            syncer.setDaemon(true);
+            syncer.start();
+        } else {
+            syncer = null;
+        }
+    }
+
+    @Override
+    public void onCommit(StateMachine machine, State from, TargetType targetType, State to, ActionType actionType) {
+        if (actionType == PrimitiveAction.INSTANCE) {
+            appendPrimitive(machine.getId(), definition.ordinalOf(from), definition.ordinalOf(targetType),
+                    definition.ordinalOf(to), System.currentTimeMillis(), machine.getPrimitivePayload());
+            return;
+        }
+        append(machine.getId(), definition.ordinalOf(from), definition.ordinalOf(targetType), definition.ordinalOf(to),
+                System.currentTimeMillis(), actionType != null ? actionType.getPayload() : null);
+    }
+
+    /**
+     * Appends one record.
+     *
+     * @param payload the payload to serialize, may be null.
+     * @throws IllegalStateException if the journal is closed or a new segment cannot be created.
+     */
+    public void append(long machineId, int fromOrdinal, int targetOrdinal, int toOrdinal, long timestamp, Object payload) {
+        append(machineId, fromOrdinal, targetOrdinal, toOrdinal, timestamp, payload, false, 0L);
+    }
+
+    /**
+     * Appends one record of an action fired with <code>stateAction(TargetType, long)</code>.
+     *
+     * @param payload the long payload of the PrimitiveAction, journaled without the PayloadCodec.
+     * @throws IllegalStateException if the journal is closed or a new segment cannot be created.
+     */
+    public void appendPrimitive(long machineId, int fromOrdinal, int targetOrdinal, int toOrdinal, long timestamp, long payload) {
+        append(machineId, fromOrdinal, targetOrdinal, toOrdinal, timestamp, null, true, payload);
+    }
+
+    private void append(long machineId, int fromOrdinal, int targetOrdinal, int toOrdinal, long timestamp, Object payload,
+                        boolean primitive, long primitivePayload) {
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("Journal closed");
+            }
+            int start = buffer.position();
+            try {
+                write(machineId, fromOrdinal, targetOrdinal, toOrdinal, timestamp, payload, primitive, primitivePayload);
+            } catch (BufferOverflowException e) {
+                // the length at start is still 0, which ends the segment for readers
+                buffer.position(start);
+                roll();
+                try {
+                    write(machineId, fromOrdinal, targetOrdinal, toOrdinal, timestamp, payload, primitive, primitivePayload);
+                } catch (BufferOverflowException tooLarge) {
+                    buffer.position(0);
+                    throw new IllegalArgumentException("Record larger than a segment, payload: " + payload);
+                }
+            }
+            dirty = true;
+        }
+    }
+
+    /**
+     * Flushes the records appended so far to disk.
+     */
+    public void sync() {
+        MappedByteBuffer current;
+        synchronized (lock) {
+            current = buffer;
+            dirty = false;
+        }
+        current.force();
+    }
+
+    /**
+     * Flushes and closes the current segment.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            buffer.force();
+            file.close();
+        }
+        if (syncer != null) {
+            syncer.interrupt();
+        }
+    }
+
+    private void write(long machineId, int fromOrdinal, int targetOrdinal, int toOrdinal, long timestamp, Object payload,
+                       boolean primitive, long primitivePayload) {
+        MappedByteBuffer buffer = this.buffer;
+        int start = buffer.position();
+        if (buffer.remaining() < HEADER_SIZE) {
+            throw new BufferOverflowException();
+        }
+        buffer.position(start + HEADER_SIZE);
+        int payloadLength = NO_PAYLOAD;
+        if (primitive) {
+            buffer.putLong(primitivePayload);
+            payloadLength = 8;
+        } else if (payload != null && codec != null) {
+            codec.encode(payload, buffer);
+            payloadLength = buffer.position() - start - HEADER_SIZE;
+        }
+        int end = (buffer.position() + 7) & ~7;
+        if (end > buffer.limit()) {
+            throw new BufferOverflowException();
+        }
+        buffer.putInt(start + 4, payloadLength);
+        buffer.putLong(start + 8, machineId);
+        buffer.putLong(start + 16, timestamp);
+        buffer.putInt(start + 24, fromOrdinal);
+        buffer.putInt(start + 28, targetOrdinal);
+        buffer.putInt(start + 32, toOrdinal);
+        buffer.putInt(start + 36, primitive ? FLAG_PRIMITIVE_PAYLOAD : 0);
+        buffer.putInt(start, end - start);
+        buffer.position(end);
+    }
+
+    private void roll() {
+        try {
+            buffer.force();
+            file.close();
+            segmentIndex++;
+            openSegment();
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot roll journal segment " + segmentIndex, e);
+        }
+    }
+
+    private void openSegment() throws IOException {
+        File segment = new File(directory, String.format("%020d", segmentIndex) + SUFFIX);
+        file = new RandomAccessFile(segment, "rw");
+        file.setLength(segmentSize);
+        buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    }
+
+    static File[] listSegments(File directory) {
+        File[] segments = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SUFFIX);
+            }
+        });
+        if (segments == null) {
+            return new File[0];
+        }
+        // names are zero-padded, so they sort by index
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    private static long indexOf(File segment) {
+        String name = segment.getName();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+}
@@ -0,0 +1,159 @@
+/*
+  ADAPTED FOR ANDROID FROM:
+  RobotLegs / PureMVC AS3 Utility - StateMachine
+  Copyright (c) 2008 Neil Manuell, Cliff Hall;
+  Copyright (c) 2013 Android Alliance Ltd
+  Your reuse is governed by the Creative Commons Attribution 3.0 License
+  http://creativecommons.org/licenses/by/3.0/
+ */
+package uk.co.androidalliance.fsm.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import uk.co.androidalliance.fsm.Phase;
+import uk.co.androidalliance.fsm.State;
+import uk.co.androidalliance.fsm.interfaces.TargetType;
+
+/**
+ * A MetricsSink keeping its counters and histograms in memory.
+ * <p/>
+ * A counter or histogram is allocated the first time its edge or observer
+ * is seen; every later measurement only looks it up and increments it.
+ * The same sink may be shared by many machines.</P>
+ */
+public class InMemoryMetricsSink implements MetricsSink {
+
+    private static final int PHASE_COUNT = Phase.values().length;
+
+    private final ConcurrentMap<State, ConcurrentMap<TargetType, Edge>> edges =
+            new ConcurrentHashMap<State, ConcurrentMap<TargetType, Edge>>();
+
+    private final ConcurrentMap<Object, LatencyHistogram[]> latencies =
+            new ConcurrentHashMap<Object, LatencyHistogram[]>();
+
+    private final AtomicLongArray cancellations = new AtomicLongArray(PHASE_COUNT);
+
+    private final AtomicLong rejections = new AtomicLong();
+
+    @Override
+    public void onTransition(State from, TargetType targetType, State to) {
+        if (from == null || targetType == null) {
+            return;
+        }
+        ConcurrentMap<TargetType, Edge> byTarget = edges.get(from);
+        if (byTarget == null) {
+            ConcurrentMap<TargetType, Edge> created = new ConcurrentHashMap<TargetType, Edge>();
+            byTarget = edges.putIfAbsent(from, created);
+            if (byTarget == null) {
+                byTarget = created;
+            }
+        }
+        Edge edge = byTarget.get(targetType);
+        if (edge == null) {
+            Edge created = new Edge(from, targetType, to);
+            edge = byTarget.putIfAbsent(targetType, created);
+            if (edge == null) {
+                edge = created;
+            }
+        }
+        edge.count.incrementAndGet();
+    }
+
+    @Override
+    public void onRejected(State from, TargetType targetType) {
+        rejections.incrementAndGet();
+    }
+
+    @Override
+    public void onCanceled(State state, Phase phase) {
+        cancellations.incrementAndGet(phase.ordinal());
+    }
+
+    @Override
+    public void onObserverLatency(Object observer, Phase phase, long nanos) {
+        LatencyHistogram[] byPhase = latencies.get(observer);
+        if (byPhase == null) {
+            LatencyHistogram[] created = new LatencyHistogram[PHASE_COUNT];
+            for (int i = 0; i < PHASE_COUNT; i++) {
+                created[i] = new LatencyHistogram();
+            }
+            byPhase = latencies.putIfAbsent(observer, created);
+            if (byPhase == null) {
+                byPhase = created;
+            }
+        }
+        byPhase[phase.ordinal()].record(nanos);
+    }
+
+    /**
+     * Get a snapshot of the edges fired so far.
+     */
+    public List<Edge> getEdges() {
+        List<Edge> snapshot = new ArrayList<Edge>();
+        for (ConcurrentMap<TargetType, Edge> byTarget : edges.values()) {
+            snapshot.addAll(byTarget.values());
+        }
+        return snapshot;
+    }
+
+    /**
+     * Get the number of transitions canceled by an observer in the given phase.
+     */
+    public long getCancellations(Phase phase) {
+        return cancellations.get(phase.ordinal());
+    }
+
+    /**
+     * Get the number of transitions refused by a TransitionGuard.
+     */
+    public long getRejections() {
+        return rejections.get();
+    }
+
+    /**
+     * Get the callback latencies of every observer measured so far, indexed by phase ordinal.
+     */
+    public Map<Object, LatencyHistogram[]> getLatencies() {
+        return Collections.unmodifiableMap(latencies);
+    }
+
+    /**
+     * A transition and the number of times it was committed.
+     */
+    public static final class Edge {
+
+        private final State from;
+        private final TargetType targetType;
+        private final State to;
+        private final AtomicLong count = new AtomicLong();
+
+        Edge(State from, TargetType targetType, State to) {
+            this.from = from;
+            this.targetType = targetType;
+            this.to = to;
+        }
+
+        public State getFrom() {
+            return from;
+        }
+
+        public TargetType getTargetType() {
+            return targetType;
+        }
+
+        public State getTo() {
+            return to;
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+  ADAPTED FOR ANDROID FROM:
+  RobotLegs / PureMVC AS3 Utility - StateMachine
+  Copyright (c) 2008 Neil Manuell, Cliff Hall;
+  Copyright (c) 2013 Android Alliance Ltd
+  Your reuse is governed by the Creative Commons Attribution 3.0 License
+  http://creativecommons.org/licenses/by/3.0/
+ */
+package uk.co.androidalliance.fsm.metrics;
+
+import uk.co.androidalliance.fsm.Phase;
+import uk.co.androidalliance.fsm.State;
+import uk.co.androidalliance.fsm.interfaces.TargetType;
+
+/**
+ * Receives the measurements of a StateMachine, see <code>StateMachine.setMetricsSink</code>.
+ * <p/>
+ * Called on the thread running the transition, so implementations should
+ * neither block nor allocate.</P>
+ */
+public interface MetricsSink {
+
+    /**
+     * A transition fired by an action has been committed.
+     */
+    void onTransition(State from, TargetType targetType, State to);
+
+    /**
+     * A TransitionGuard refused a transition.
+     */
+    void onRejected(State from, TargetType targetType);
+
+    /**
+     * An observer canceled a transition.
+     *
+     * @param state the state being exited or entered.
+     * @param phase EXITING or ENTERING.
+     */
+    void onCanceled(State state, Phase phase);
+
+    /**
+     * An observer callback returned.
+     *
+     * @param observer the observer called.
+     * @param phase the callback called.
+     * @param nanos the time spent in the callback.
+     */
+    void onObserverLatency(Object observer, Phase phase, long nanos);
+}
@@ -0,0 +1,98 @@
+/*
+  ADAPTED FOR ANDROID FROM:
+  RobotLegs / PureMVC AS3 Utility - StateMachine
+  Copyright (c) 2008 Neil Manuell, Cliff Hall;
+  Copyright (c) 2013 Android Alliance Ltd
+  Your reuse is governed by the Creative Commons Attribution 3.0 License
+  http://creativecommons.org/licenses/by/3.0/
+ */
+package uk.co.androidalliance.fsm.metrics;
+
+import java.io.IOException;
+import java.util.Map;
+
+import uk.co.androidalliance.fsm.Phase;
+import uk.co.androidalliance.fsm.State;
+
+/**
+ * Writes an InMemoryMetricsSink in the Prometheus text exposition format,
+ * ready to be served by any HTTP handler as <code>text/plain; version=0.0.4</code>.
+ * <p/>
+ * Latency histograms only list their non-empty buckets.</P>
+ */
+public final class TextMetricsExporter {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4";
+
+    private final String prefix;
+
+    /**
+     * @param prefix prepended to every metric name, for example "door_".
+     */
+    public TextMetricsExporter(String prefix) {
+        this.prefix = prefix != null ? prefix : "";
+    }
+
+    public void write(InMemoryMetricsSink sink, Appendable out) throws IOException {
+        String name = prefix + "fsm_transitions_total";
+        out.append("# TYPE ").append(name).append(" counter\n");
+        for (InMemoryMetricsSink.Edge edge : sink.getEdges()) {
+            out.append(name)
+                    .append("{from=\"").append(label(edge.getFrom())).append('"')
+                    .append(",target=\"").append(escape(String.valueOf(edge.getTargetType()))).append('"')
+                    .append(",to=\"").append(label(edge.getTo())).append("\"} ")
+                    .append(Long.toString(edge.getCount())).append('\n');
+        }
+
+        name = prefix + "fsm_cancellations_total";
+        out.append("# TYPE ").append(name).append(" counter\n");
+        for (Phase phase : new Phase[] { Phase.EXITING, Phase.ENTERING }) {
+            out.append(name).append("{phase=\"").append(phase.name()).append("\"} ")
+                    .append(Long.toString(sink.getCancellations(phase))).append('\n');
+        }
+
+        name = prefix + "fsm_rejections_total";
+        out.append("# TYPE ").append(name).append(" counter\n");
+        out.append(name).append(' ').append(Long.toString(sink.getRejections())).append('\n');
+
+        name = prefix + "fsm_observer_latency_nanoseconds";
+        out.append("# TYPE ").append(name).append(" histogram\n");
+        for (Map.Entry<Object, LatencyHistogram[]> entry : sink.getLatencies().entrySet()) {
+            Object observer = entry.getKey();
+            String labels = "observer=\"" + escape(observer.getClass().getName() + "@"
+                    + Integer.toHexString(System.identityHashCode(observer))) + "\"";
+            for (Phase phase : Phase.values()) {
+                LatencyHistogram histogram = entry.getValue()[phase.ordinal()];
+                if (histogram.getCount() == 0) {
+                    continue;
+                }
+                String phaseLabels = labels + ",phase=\"" + phase.name() + "\"";
+                long cumulative = 0;
+                for (int i = 0; i < LatencyHistogram.BUCKET_COUNT; i++) {
+                    long count = histogram.getBucketCount(i);
+                    if (count == 0) {
+                        continue;
+                    }
+                    cumulative += count;
+                    out.append(name).append("_bucket{").append(phaseLabels)
+                            .append(",le=\"").append(Long.toString(LatencyHistogram.upperBound(i))).append("\"} ")
+                            .append(Long.toString(cumulative)).append('\n');
+                }
+                out.append(name).append("_bucket{").append(phaseLabels).append(",le=\"+Inf\"} ")
+                        .append(Long.toString(histogram.getCount())).append('\n');
+                out.append(name).append("_sum{").append(phaseLabels).append("} ")
+                        .append(Long.toString(histogram.getSum())).append('\n');
+                out.append(name).append("_count{").append(phaseLabels).append("} ")
+                        .append(Long.toString(histogram.getCount())).append('\n');
+            }
+        }
+    }
+
+    private static String label(State state) {
+        return state != null ? escape(String.valueOf(state.getStateType())) : "";
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2013 Android Alliance LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.androidalliance.fsm.client;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import uk.co.androidalliance.fsm.flow.FrameClock;
+
+/**
+ * A FrameClock following the display's vsync, through the Choreographer of the main thread.
+ * <p/>
+ * Before Jelly Bean there is no Choreographer, the callbacks are posted to
+ * the main thread about one 60Hz frame later instead.</P>
+ */
+public class ChoreographerFrameClock implements FrameClock {
+
+    private static final long FALLBACK_FRAME_MILLIS = 16L;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    @Override
+    public void postFrame(final Runnable callback) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            handler.postDelayed(callback, FALLBACK_FRAME_MILLIS);
+        } else if (Looper.myLooper() == Looper.getMainLooper()) {
+            postFrameCallback(callback);
+        } else {
+            // Choreographer.getInstance() belongs to the calling thread's Looper, it must be the main one
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    postFrameCallback(callback);
+                }
+            });
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static void postFrameCallback(final Runnable callback) {
+        Choreographer.getInstance().postFrameCallback(new Choreographer.FrameCallback() {
+            @Override
+            public void doFrame(long frameTimeNanos) {
+                callback.run();
+            }
+        });
+    }
+}
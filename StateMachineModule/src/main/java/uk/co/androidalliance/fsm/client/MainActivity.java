@@ -19,8 +19,13 @@ import android.app.Activity;
 import android.app.Fragment;
 import android.app.FragmentTransaction;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
+import java.util.concurrent.Executor;
+
+import uk.co.androidalliance.fsm.MailboxStateMachine;
 import uk.co.androidalliance.fsm.State;
 import uk.co.androidalliance.fsm.StateMachine;
 import uk.co.androidalliance.fsm.client.R;
@@ -31,6 +36,7 @@ import uk.co.androidalliance.fsm.client.fragments.LockedFragment;
 import uk.co.androidalliance.fsm.client.fragments.OpenedFragment;
 import uk.co.androidalliance.fsm.client.statetype.ClientStateType;
 import uk.co.androidalliance.fsm.client.targettypes.ClientTargetType;
+import uk.co.androidalliance.fsm.flow.ConflatingObserver;
 import uk.co.androidalliance.fsm.interfaces.ActionType;
 import uk.co.androidalliance.fsm.interfaces.TargetType;
 import uk.co.androidalliance.fsm.interfaces.TransitionAction;
@@ -52,8 +58,29 @@ public class MainActivity extends Activity implements StateMachine.Observer, Tra
     }
 
     private void bootstrapFSM() {
-        fsm = new StateMachine();
+        fsm = new MailboxStateMachine(new MainThreadExecutor());
         fsm.addObserver(this);
+        // only the latest state of a burst of transitions swaps the fragment, once per frame
+        ConflatingObserver conflatingObserver = new ConflatingObserver(new ChoreographerFrameClock());
+        conflatingObserver.subscribe(CLOSED, new StateMachine.StateListener() {
+            @Override
+            public void onState(State state, ActionType actionType) {
+                showClosed();
+            }
+        });
+        conflatingObserver.subscribe(OPENED, new StateMachine.StateListener() {
+            @Override
+            public void onState(State state, ActionType actionType) {
+                showOpened();
+            }
+        });
+        conflatingObserver.subscribe(LOCKED, new StateMachine.StateListener() {
+            @Override
+            public void onState(State state, ActionType actionType) {
+                showLocked();
+            }
+        });
+        conflatingObserver.attach(fsm);
 
         // use a bundle
         State openedState = new State.Builder(OPENED).setEntering(new Entering("event/openingEvent")).setExiting("event/aboutToCloseEvent").build();
@@ -110,18 +137,10 @@ public class MainActivity extends Activity implements StateMachine.Observer, Tra
         Log.d(TAG, "onStateChanged() " + state.getStateType() + ", changed data: " + state.getChanged());
     }
 
+    // the fragments are swapped by the subscriptions of the ConflatingObserver
     @Override
     public void onChanged(State state, ActionType actionType) {
-
         Log.d(TAG, "onChanged() " + state.getStateType().toString() + " : " + actionType.toString());
-
-        if (state.getStateType().equals(ClientStateType.CLOSED)) {
-            showClosed();
-        } else if (state.getStateType().equals(ClientStateType.OPENED)) {
-            showOpened();
-        } else if (state.getStateType().equals(ClientStateType.LOCKED)) {
-            showLocked();
-        }
     }
 
     private void showLocked() {
@@ -136,6 +155,7 @@ public class MainActivity extends Activity implements StateMachine.Observer, Tra
         showFragment(ClosedFragment.newInstance(), ClosedFragment.FRAGMENT_TAG, false, true);
     }
 
+    // only enqueues, the transition runs later on the main thread
     @Override
     public void onStateAction(TargetType targetType, ActionType actionType) {
         fsm.stateAction(targetType, actionType);
@@ -146,4 +166,14 @@ public class MainActivity extends Activity implements StateMachine.Observer, Tra
         fsm.stateCancel(targetType);
     }
 
+    private static class MainThreadExecutor implements Executor {
+
+        private final Handler handler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void execute(Runnable command) {
+            handler.post(command);
+        }
+    }
+
 }
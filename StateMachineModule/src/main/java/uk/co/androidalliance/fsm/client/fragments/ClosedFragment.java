@@ -23,6 +23,7 @@ import android.view.ViewGroup;
 import android.widget.Button;
 
 import uk.co.androidalliance.fsm.client.targettypes.ClientTargetType;
+import uk.co.androidalliance.fsm.interfaces.ActionType;
 import uk.co.androidalliance.fsm.interfaces.TransitionAction;
 import uk.co.androidalliance.fsm.client.R;
 import uk.co.androidalliance.fsm.client.actiontypes.LockActionTypes;
@@ -33,6 +34,10 @@ public class ClosedFragment extends Fragment {
     private final String TAG = ClosedFragment.class.getSimpleName();
     public static final String FRAGMENT_TAG = "ClosedFragment";
 
+    // the payloads never change, so one action serves every press
+    private static final ActionType OPEN_ACTION = new OpenActionTypes("dummy data");
+    private static final ActionType LOCK_ACTION = new LockActionTypes("dummy data");
+
     public static ClosedFragment newInstance() {
         return new ClosedFragment();
     }
@@ -51,7 +56,7 @@ public class ClosedFragment extends Fragment {
             @Override
             public void onClick(View v) {
                 if (getActivity()!=null){
-                    ((TransitionAction) getActivity()).onStateAction(ClientTargetType.OPEN, new OpenActionTypes("dummy data"));
+                    ((TransitionAction) getActivity()).onStateAction(ClientTargetType.OPEN, OPEN_ACTION);
                 }
             }
         });
@@ -61,7 +66,7 @@ public class ClosedFragment extends Fragment {
             @Override
             public void onClick(View v) {
                 if (getActivity()!=null){
-                    ((TransitionAction) getActivity()).onStateAction(ClientTargetType.LOCK, new LockActionTypes("dummy data"));
+                    ((TransitionAction) getActivity()).onStateAction(ClientTargetType.LOCK, LOCK_ACTION);
                 }
             }
         });
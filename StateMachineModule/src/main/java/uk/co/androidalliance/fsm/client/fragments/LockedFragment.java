@@ -23,6 +23,7 @@ import android.view.ViewGroup;
 import android.widget.Button;
 
 import uk.co.androidalliance.fsm.client.targettypes.ClientTargetType;
+import uk.co.androidalliance.fsm.interfaces.ActionType;
 import uk.co.androidalliance.fsm.interfaces.TransitionAction;
 import uk.co.androidalliance.fsm.client.R;
 import uk.co.androidalliance.fsm.client.actiontypes.UnlockActionTypes;
@@ -32,6 +33,8 @@ public class LockedFragment extends Fragment {
     private final String TAG = LockedFragment.class.getSimpleName();
     public static final String FRAGMENT_TAG = "LockedFragment";
 
+    private static final ActionType UNLOCK_ACTION = new UnlockActionTypes("dummy data");
+
     public static LockedFragment newInstance() {
         return new LockedFragment();
     }
@@ -50,7 +53,7 @@ public class LockedFragment extends Fragment {
             @Override
             public void onClick(View v) {
                 if (getActivity() != null) {
-                    ((TransitionAction) getActivity()).onStateAction(ClientTargetType.UNLOCK, new UnlockActionTypes("dummy data"));
+                    ((TransitionAction) getActivity()).onStateAction(ClientTargetType.UNLOCK, UNLOCK_ACTION);
                 }
             }
         });
@@ -23,6 +23,7 @@ import android.view.ViewGroup;
 import android.widget.Button;
 
 import uk.co.androidalliance.fsm.client.targettypes.ClientTargetType;
+import uk.co.androidalliance.fsm.interfaces.ActionType;
 import uk.co.androidalliance.fsm.interfaces.TransitionAction;
 import uk.co.androidalliance.fsm.client.R;
 import uk.co.androidalliance.fsm.client.actiontypes.CloseActionType;
@@ -32,6 +33,8 @@ public class OpenedFragment extends Fragment {
     private final String TAG = OpenedFragment.class.getSimpleName();
     public static final String FRAGMENT_TAG = "OpenedFragment";
 
+    private static final ActionType CLOSE_ACTION = new CloseActionType("dummy data");
+
     public static OpenedFragment newInstance() {
         return new OpenedFragment();
     }
@@ -50,7 +53,7 @@ public class OpenedFragment extends Fragment {
             @Override
             public void onClick(View v) {
                 if (getActivity()!=null){
-                    ((TransitionAction) getActivity()).onStateAction(ClientTargetType.CLOSE, new CloseActionType("dummy data"));
+                    ((TransitionAction) getActivity()).onStateAction(ClientTargetType.CLOSE, CLOSE_ACTION);
                 }
             }
         });